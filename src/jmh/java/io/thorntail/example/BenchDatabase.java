@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A fresh in-memory H2 database with the {@code BenchPU} schema and a given number of fruits.
+ */
+class BenchDatabase implements AutoCloseable {
+    private final String url = "jdbc:h2:mem:bench-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1";
+
+    private final EntityManagerFactory emf;
+
+    BenchDatabase(int rows) throws SQLException {
+        this(rows, Collections.emptyMap());
+    }
+
+    /**
+     * With {@code properties} added to or overriding those of {@code BenchPU}.
+     */
+    BenchDatabase(int rows, Map<String, String> properties) throws SQLException {
+        Map<String, String> overrides = new HashMap<>(properties);
+        overrides.put("javax.persistence.jdbc.url", url);
+        emf = Persistence.createEntityManagerFactory("BenchPU", overrides);
+        try (Connection connection = connection();
+             PreparedStatement insert = connection.prepareStatement("INSERT INTO known_fruits(id, name, version) VALUES (?, ?, 0)")) {
+            connection.setAutoCommit(false);
+            for (int id = 1; id <= rows; id++) {
+                insert.setInt(1, id);
+                insert.setString(2, "fruit-" + id);
+                insert.addBatch();
+                if (id % 1000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            try (Statement statement = connection.createStatement()) {
+                // keep generated ids clear of the seeded ones
+                statement.execute("ALTER SEQUENCE known_fruits_id_seq RESTART WITH " + (rows + 1));
+            }
+            connection.commit();
+        }
+    }
+
+    EntityManagerFactory emf() {
+        return emf;
+    }
+
+    Connection connection() throws SQLException {
+        return DriverManager.getConnection(url, "sa", "sa");
+    }
+
+    @Override
+    public void close() throws SQLException {
+        emf.close();
+        try (Connection connection = connection(); Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+}
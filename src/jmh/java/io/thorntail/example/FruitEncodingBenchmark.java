@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.json.JsonArray;
+import javax.json.JsonReader;
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode and decode cost of a fruit list as JSON, the way the Jackson provider and
+ * {@link FruitStream} write it, and as CBOR, each plain and gzip-compressed as
+ * {@link FruitCompression} would send it. The encoded sizes are printed when each trial starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FruitEncodingBenchmark {
+    @Param({"100", "10000"})
+    private int fruits;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+    private final JsonProvider json = JsonProvider.provider();
+
+    private Fruit[] list;
+
+    private byte[] encoded;
+
+    private byte[] cbor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        list = new Fruit[fruits];
+        for (int i = 0; i < fruits; i++) {
+            list[i] = new Fruit(i + 1, "Fruit number " + (i + 1), i % 7);
+        }
+        encoded = jackson();
+        cbor = cbor();
+        System.out.println();
+        System.out.println(fruits + " fruits: json " + encoded.length + " B, json+gzip " + gzip(encoded).length
+                                   + " B, cbor " + cbor.length + " B, cbor+gzip " + gzip(cbor).length + " B");
+    }
+
+    @Benchmark
+    public byte[] jackson() throws IOException {
+        return mapper.writeValueAsBytes(list);
+    }
+
+    @Benchmark
+    public byte[] jsonp() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(fruits * 48);
+        try (JsonGenerator generator = json.createGenerator(out)) {
+            generator.writeStartArray();
+            for (Fruit fruit : list) {
+                generator.writeStartObject()
+                        .write("id", fruit.getId())
+                        .write("name", fruit.getName())
+                        .write("version", fruit.getVersion())
+                        .writeEnd();
+            }
+            generator.writeEnd();
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] cbor() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(fruits * 32);
+        FruitCbor encoder = new FruitCbor(out).startArray(list.length);
+        for (Fruit fruit : list) {
+            encoder.write(fruit);
+        }
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] jacksonGzip() throws IOException {
+        return gzip(jackson());
+    }
+
+    @Benchmark
+    public byte[] cborGzip() throws IOException {
+        return gzip(cbor());
+    }
+
+    @Benchmark
+    public Fruit[] decodeJackson() throws IOException {
+        return mapper.readValue(encoded, Fruit[].class);
+    }
+
+    @Benchmark
+    public JsonArray decodeJsonp() {
+        try (JsonReader reader = json.createReader(new ByteArrayInputStream(encoded))) {
+            return reader.readArray();
+        }
+    }
+
+    @Benchmark
+    public Fruit[] decodeCbor() throws IOException {
+        return cborMapper.readValue(cbor, Fruit[].class);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        // the default level, the same as fruits.compression.level
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
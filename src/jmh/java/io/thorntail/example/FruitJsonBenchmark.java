@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding costs of a single fruit and of the error body built by {@link FruitService#error(int, String)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FruitJsonBenchmark {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Fruit fruit = new Fruit(42, "Cherry", 3);
+
+    @Benchmark
+    public byte[] jackson() throws IOException {
+        return mapper.writeValueAsBytes(fruit);
+    }
+
+    @Benchmark
+    public byte[] jsonp() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        try (JsonGenerator generator = Json.createGenerator(out)) {
+            generator.writeStartObject()
+                    .write("id", fruit.getId())
+                    .write("name", fruit.getName())
+                    .write("version", fruit.getVersion())
+                    .writeEnd();
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public String errorBody() {
+        JsonObject body = (JsonObject) FruitService.error(422, "The name is required!").getEntity();
+        StringWriter out = new StringWriter(64);
+        try (JsonWriter writer = Json.createWriter(out)) {
+            writer.writeObject(body);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.persistence.EntityManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JPA paths of {@link FruitService} against in-memory H2, at several table sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FruitPersistenceBenchmark {
+    @Param({"10", "10000", "1000000"})
+    private int rows;
+
+    private final AtomicInteger names = new AtomicInteger();
+
+    private BenchDatabase database;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchDatabase(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Benchmark
+    public List<Fruit> findAll() {
+        EntityManager em = database.emf().createEntityManager();
+        try {
+            return em.createNamedQuery("Fruits.findAll", Fruit.class).getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+    @Benchmark
+    public Fruit find() {
+        EntityManager em = database.emf().createEntityManager();
+        try {
+            return em.find(Fruit.class, randomId());
+        } finally {
+            em.close();
+        }
+    }
+
+    @Benchmark
+    public List<Fruit> viewById() {
+        EntityManager em = database.emf().createEntityManager();
+        try {
+            return em.createNamedQuery("Fruits.viewById", Fruit.class)
+                    .setParameter("id", randomId())
+                    .getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+    @Benchmark
+    public Fruit persist() {
+        EntityManager em = database.emf().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Fruit fruit = new Fruit("bench-" + names.incrementAndGet());
+            em.persist(fruit);
+            em.getTransaction().commit();
+            return fruit;
+        } finally {
+            em.close();
+        }
+    }
+
+    private int randomId() {
+        return ThreadLocalRandom.current().nextInt(rows) + 1;
+    }
+}
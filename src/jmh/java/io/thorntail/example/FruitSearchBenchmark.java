@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Search and update latency of {@link FruitNameIndex} over generated two-word names. The heap
+ * retained per indexed name is printed when each trial starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FruitSearchBenchmark {
+    private static final String[] SYLLABLES = {
+            "ba", "na", "ap", "ple", "cher", "ry", "man", "go", "pa", "pay", "ki", "wi", "lem", "on", "lime",
+            "mel", "or", "an", "ge", "pe", "ach", "plum", "fig", "da", "te", "gua", "va", "ly", "chee", "nut"
+    };
+
+    @Param({"10000", "1000000"})
+    private int names;
+
+    private FruitNameIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        long before = usedHeap();
+        FruitNameIndex.Builder builder = new FruitNameIndex.Builder();
+        for (int id = 1; id <= names; id++) {
+            builder.add(id, word(random) + " " + word(random) + " " + id);
+        }
+        index = builder.build();
+        long after = usedHeap();
+        System.out.println();
+        System.out.println("Indexed " + index.size() + " names in " + (after - before) / 1024 / 1024 + " MiB, "
+                                   + (after - before) / names + " bytes per name");
+    }
+
+    @Benchmark
+    public List<FruitNameIndex.Entry> shortPrefix() {
+        return index.search("ba", 20);
+    }
+
+    @Benchmark
+    public List<FruitNameIndex.Entry> longPrefix() {
+        return index.search("cherry", 20);
+    }
+
+    @Benchmark
+    public List<FruitNameIndex.Entry> commonSubstring() {
+        return index.search("ana", 20);
+    }
+
+    @Benchmark
+    public List<FruitNameIndex.Entry> rareSubstring() {
+        return index.search("plumfig", 20);
+    }
+
+    /**
+     * Spans two words, so no name starts with it and every result comes from the trigrams.
+     */
+    @Benchmark
+    public List<FruitNameIndex.Entry> substringOnly() {
+        return index.search("o plum", 20);
+    }
+
+    @Benchmark
+    public List<FruitNameIndex.Entry> noMatch() {
+        return index.search("xyz", 20);
+    }
+
+    /**
+     * What a committed create or rename costs the index.
+     */
+    @Benchmark
+    public int rename() {
+        index.put(names / 2, "banana cherry " + System.nanoTime());
+        return index.size();
+    }
+
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 1 + random.nextInt(3); i >= 0; i--) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return word.toString();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
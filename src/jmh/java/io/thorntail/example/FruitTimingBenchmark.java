@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.persistence.EntityManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of timing every request: the same point read and insert as {@link FruitPersistenceBenchmark},
+ * without {@link FruitSessionTiming}, and with it plus a bound {@link RequestTiming} and the
+ * {@code Server-Timing} header and log line built for each operation. The database round trip
+ * dwarfs the difference, {@link #eventsOnly()} measures the timing work on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FruitTimingBenchmark {
+    private static final int ROWS = 10000;
+
+    @Param({"false", "true"})
+    private boolean timing;
+
+    private final AtomicInteger names = new AtomicInteger();
+
+    private BenchDatabase database;
+
+    private final FruitStatementInspector inspector = new FruitStatementInspector(new FruitQueryLog(100));
+
+    private final FruitSessionTiming events = new FruitSessionTiming();
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        Map<String, String> properties = new HashMap<>();
+        if (timing) {
+            properties.put("hibernate.session.events.auto", FruitSessionTiming.class.getName());
+            properties.put("hibernate.session_factory.statement_inspector", FruitStatementInspector.class.getName());
+        }
+        database = new BenchDatabase(ROWS, properties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Benchmark
+    public Object viewById() {
+        RequestTiming request = start("GET");
+        EntityManager em = database.emf().createEntityManager();
+        try {
+            List<Fruit> fruits = em.createNamedQuery("Fruits.viewById", Fruit.class)
+                    .setParameter("id", ThreadLocalRandom.current().nextInt(ROWS) + 1)
+                    .getResultList();
+            return finish(request, fruits);
+        } finally {
+            em.close();
+        }
+    }
+
+    @Benchmark
+    public Object persist() {
+        RequestTiming request = start("POST");
+        EntityManager em = database.emf().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Fruit fruit = new Fruit("bench-" + names.incrementAndGet());
+            em.persist(fruit);
+            em.getTransaction().commit();
+            return finish(request, fruit);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Just the timing work of a request running one statement: the listener callbacks Hibernate
+     * makes, the bound {@link RequestTiming}, the header and the log line.
+     */
+    @Benchmark
+    public Object eventsOnly() {
+        RequestTiming request = start("GET");
+        if (request == null) {
+            return null;
+        }
+        inspector.inspect("select fruit0_.id as id1_0_ from known_fruits fruit0_ where fruit0_.id=?");
+        events.jdbcConnectionAcquisitionStart();
+        events.jdbcConnectionAcquisitionEnd();
+        events.jdbcPrepareStatementStart();
+        events.jdbcPrepareStatementEnd();
+        events.jdbcExecuteStatementStart();
+        events.jdbcExecuteStatementEnd();
+        events.flushStart();
+        events.flushEnd(0, 0);
+        events.transactionCompletion(true);
+        return finish(request, null);
+    }
+
+    private RequestTiming start(String method) {
+        if (!timing) {
+            return null;
+        }
+        RequestTiming request = new RequestTiming(method, "/fruits");
+        request.bind();
+        return request;
+    }
+
+    private static Object finish(RequestTiming request, Object result) {
+        if (request == null) {
+            return result;
+        }
+        request.unbind();
+        request.finish();
+        return new Object[]{result, request.serverTiming(), request.logLine(200, 0)};
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Open-model load generator for {@code /api/fruits}.
+ * <p>
+ * Requests are issued on a fixed schedule regardless of how fast the server answers, and each
+ * latency is measured from the request's intended start, so a stalled server shows up in the
+ * percentiles instead of silently lowering the offered load (coordinated omission).
+ * The rates are swept in steps; the sweep stops at the first step that misses the p99 SLO or
+ * falls behind its offered rate, and the step before it is reported as the knee.
+ */
+public class LoadGenerator {
+    enum Op {
+        LIST, GET, CREATE, UPDATE, DELETE
+    }
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final String url;
+
+    private final int[] rates;
+
+    private final int stepSeconds;
+
+    private final int warmupSeconds;
+
+    private final double sloP99Millis;
+
+    private final int connections;
+
+    private final File out;
+
+    private final Op[] mix;
+
+    private final String namePrefix = "load-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+
+    private final AtomicLong names = new AtomicLong();
+
+    private final AtomicIntegerArray knownIds = new AtomicIntegerArray(1 << 16);
+
+    private final AtomicLong knownCount = new AtomicLong();
+
+    private final ConcurrentLinkedDeque<Integer> deletable = new ConcurrentLinkedDeque<>();
+
+    LoadGenerator(String[] args) {
+        url = option(args, "url", "http://localhost:8080") + "/api/fruits";
+        rates = parseRates(option(args, "rates", "50,100,200,400,800,1600"));
+        stepSeconds = Integer.parseInt(option(args, "step-seconds", "30"));
+        warmupSeconds = Integer.parseInt(option(args, "warmup-seconds", "10"));
+        sloP99Millis = Double.parseDouble(option(args, "slo-p99-ms", "50"));
+        connections = Integer.parseInt(option(args, "connections", "256"));
+        out = new File(option(args, "out", "target/load"));
+        mix = parseMix(option(args, "mix", "list=10,get=60,create=10,update=15,delete=5"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(args).sweep();
+    }
+
+    private void sweep() throws Exception {
+        System.setProperty("http.maxConnections", String.valueOf(connections));
+        if (!out.isDirectory() && !out.mkdirs()) {
+            throw new IOException("Cannot create " + out);
+        }
+        for (int id = 1; id <= 3; id++) {
+            remember(id);
+        }
+
+        System.out.printf("Warming up at %d req/s for %ds%n", rates[0], warmupSeconds);
+        runStep(rates[0], warmupSeconds);
+
+        Integer knee = null;
+        try (PrintStream summary = new PrintStream(new File(out, "summary.csv"), "UTF-8")) {
+            summary.println("rate,op,count,throughput,p50_ms,p99_ms,p999_ms,max_ms,errors");
+            for (int rate : rates) {
+                StepResult result = runStep(rate, stepSeconds);
+                result.report(rate, summary);
+
+                double p99 = result.total.getValueAtPercentile(99.0) / 1000.0;
+                boolean keepsUp = result.throughput() >= rate * 0.95;
+                System.out.printf("rate %5d req/s: achieved %8.1f req/s, p99 %8.2f ms%n", rate, result.throughput(), p99);
+                if (!keepsUp || p99 > sloP99Millis) {
+                    break;
+                }
+                knee = rate;
+            }
+        }
+
+        if (knee == null) {
+            System.out.printf("No step met p99 <= %.1f ms; the knee is below %d req/s%n", sloP99Millis, rates[0]);
+        } else {
+            System.out.printf("Knee: %d req/s (p99 <= %.1f ms)%n", knee, sloP99Millis);
+        }
+    }
+
+    private StepResult runStep(int rate, int seconds) throws InterruptedException {
+        Map<Op, Recorder> recorders = new EnumMap<>(Op.class);
+        Map<Op, LongAdder> errors = new EnumMap<>(Op.class);
+        for (Op op : Op.values()) {
+            recorders.put(op, new Recorder(HIGHEST_TRACKABLE_MICROS, 3));
+            errors.put(op, new LongAdder());
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(connections);
+        Random random = new Random();
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long duration = TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+        for (long i = 0; i * interval < duration; i++) {
+            long intended = start + i * interval;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Op op = mix[random.nextInt(mix.length)];
+            workers.execute(() -> {
+                Op executed = op;
+                boolean ok;
+                try {
+                    executed = execute(op);
+                    ok = true;
+                } catch (IOException e) {
+                    ok = false;
+                }
+                long micros = (System.nanoTime() - intended) / 1000;
+                recorders.get(executed).recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+                if (!ok) {
+                    errors.get(executed).increment();
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+
+        StepResult result = new StepResult(elapsed);
+        for (Op op : Op.values()) {
+            result.add(op, recorders.get(op).getIntervalHistogram(), errors.get(op).sum());
+        }
+        return result;
+    }
+
+    /**
+     * Runs one operation and returns the one actually executed: a delete with nothing left to
+     * delete turns into a create.
+     */
+    private Op execute(Op op) throws IOException {
+        switch (op) {
+            case LIST:
+                request("GET", url, null);
+                return op;
+            case GET:
+                request("GET", url + "/" + randomKnownId(), null);
+                return op;
+            case UPDATE:
+                request("PUT", url + "/" + randomKnownId(), newName());
+                return op;
+            case DELETE:
+                Integer id = deletable.pollFirst();
+                if (id != null) {
+                    request("DELETE", url + "/" + id, null);
+                    return op;
+                }
+                // fall through
+            default:
+                Matcher matcher = ID.matcher(request("POST", url, newName()));
+                if (matcher.find()) {
+                    int created = Integer.parseInt(matcher.group(1));
+                    remember(created);
+                    deletable.addLast(created);
+                }
+                return Op.CREATE;
+        }
+    }
+
+    private String request(String method, String target, String name) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(target).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept", "application/json");
+        if (name != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream body = connection.getOutputStream()) {
+                body.write(("{\"name\":\"" + name + "\"}").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int status = connection.getResponseCode();
+        // drain the body either way so the connection goes back to the keep-alive pool
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream body = in) {
+                byte[] buffer = new byte[8192];
+                for (int n; (n = body.read(buffer)) != -1; ) {
+                    response.write(buffer, 0, n);
+                }
+            }
+        }
+        // a concurrent delete can legitimately make the target disappear
+        if (status >= 400 && status != 404) {
+            throw new IOException(method + " " + target + " returned " + status);
+        }
+        return new String(response.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String newName() {
+        return namePrefix + names.incrementAndGet();
+    }
+
+    private void remember(int id) {
+        knownIds.set((int) (knownCount.getAndIncrement() % knownIds.length()), id);
+    }
+
+    private int randomKnownId() {
+        int bound = (int) Math.min(knownCount.get(), knownIds.length());
+        return knownIds.get(ThreadLocalRandom.current().nextInt(bound));
+    }
+
+    private final class StepResult {
+        private final long elapsedNanos;
+
+        private final Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+        private final Map<Op, Histogram> histograms = new EnumMap<>(Op.class);
+
+        private final Map<Op, Long> errors = new EnumMap<>(Op.class);
+
+        StepResult(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void add(Op op, Histogram histogram, long errorCount) {
+            histograms.put(op, histogram);
+            errors.put(op, errorCount);
+            total.add(histogram);
+        }
+
+        double throughput() {
+            return total.getTotalCount() / (elapsedNanos / 1e9);
+        }
+
+        void report(int rate, PrintStream summary) throws IOException {
+            for (Map.Entry<Op, Histogram> entry : histograms.entrySet()) {
+                Histogram histogram = entry.getValue();
+                if (histogram.getTotalCount() == 0) {
+                    continue;
+                }
+                String op = entry.getKey().name().toLowerCase();
+                summary.printf("%d,%s,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%d%n", rate, op, histogram.getTotalCount(),
+                               histogram.getTotalCount() / (elapsedNanos / 1e9),
+                               histogram.getValueAtPercentile(50.0) / 1000.0,
+                               histogram.getValueAtPercentile(99.0) / 1000.0,
+                               histogram.getValueAtPercentile(99.9) / 1000.0,
+                               histogram.getMaxValue() / 1000.0,
+                               errors.get(entry.getKey()));
+                try (PrintStream hgrm = new PrintStream(new File(out, rate + "-" + op + ".hgrm"), "UTF-8")) {
+                    // values are recorded in microseconds, reported in milliseconds
+                    histogram.outputPercentileDistribution(hgrm, 1000.0);
+                }
+            }
+        }
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--" + name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    private static int[] parseRates(String value) {
+        String[] parts = value.split(",");
+        int[] parsed = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            parsed[i] = Integer.parseInt(parts[i].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Expands {@code op=weight} pairs into a lookup table, so picking an operation is one random index.
+     */
+    private static Op[] parseMix(String value) {
+        List<Op> table = new ArrayList<>();
+        for (String pair : value.split(",")) {
+            String[] parts = pair.split("=");
+            Op op = Op.valueOf(parts[0].trim().toUpperCase());
+            for (int i = Integer.parseInt(parts[1].trim()); i > 0; i--) {
+                table.add(op);
+            }
+        }
+        return table.toArray(new Op[0]);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the connection pool statistics of {@code MyDS} and {@code MyReadDS} from the management
+ * model over JMX. Requires {@code statistics-enabled} on the datasource; every reading is -1 when
+ * unavailable, as for a datasource that is not defined.
+ */
+@ApplicationScoped
+public class DataSourcePool {
+    static final String PRIMARY = "MyDS";
+
+    static final String REPLICA = "MyReadDS";
+
+    static final List<String> DATA_SOURCES = Arrays.asList(PRIMARY, REPLICA);
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private final Map<String, ObjectName> pools = new HashMap<>();
+
+    private final Map<String, ObjectName> settings = new HashMap<>();
+
+    public DataSourcePool() {
+        for (String dataSource : DATA_SOURCES) {
+            pools.put(dataSource, name("jboss.as:subsystem=datasources,data-source=" + dataSource + ",statistics=pool"));
+            settings.put(dataSource, name("jboss.as:subsystem=datasources,data-source=" + dataSource));
+        }
+    }
+
+    /**
+     * Connections currently created, in use or idle.
+     */
+    public long getActive(String dataSource) {
+        return read(pools.get(dataSource), "activeCount");
+    }
+
+    public long getInUse(String dataSource) {
+        return read(pools.get(dataSource), "inUseCount");
+    }
+
+    public long getIdle(String dataSource) {
+        long active = getActive(dataSource);
+        long inUse = getInUse(dataSource);
+        return active < 0 || inUse < 0 ? -1 : active - inUse;
+    }
+
+    /**
+     * Threads currently waiting for a connection.
+     */
+    public long getWaiting(String dataSource) {
+        return read(pools.get(dataSource), "waitCount");
+    }
+
+    public long getAverageBlockingTimeMillis(String dataSource) {
+        return read(pools.get(dataSource), "averageBlockingTime");
+    }
+
+    public long getMaxWaitTimeMillis(String dataSource) {
+        return read(pools.get(dataSource), "maxWaitTime");
+    }
+
+    public long getMaxPoolSize(String dataSource) {
+        return read(settings.get(dataSource), "maxPoolSize");
+    }
+
+    /**
+     * Connections in use as a share of the pool's maximum size, 0 when unknown.
+     */
+    public double getUsage(String dataSource) {
+        long inUse = getInUse(dataSource);
+        long max = getMaxPoolSize(dataSource);
+        return inUse < 0 || max <= 0 ? 0 : (double) inUse / max;
+    }
+
+    private long read(ObjectName name, String attribute) {
+        if (name == null) {
+            return -1;
+        }
+        try {
+            Object value = server.getAttribute(name, attribute);
+            return value instanceof Number ? ((Number) value).longValue() : -1;
+        } catch (JMException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static ObjectName name(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (JMException e) {
+            return null;
+        }
+    }
+}
@@ -24,25 +24,51 @@ import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Version;
 import java.io.Serializable;
 import java.util.Objects;
 
 @Entity
 @Table(name = "known_fruits")
 @NamedQueries({
-        @NamedQuery(name = "Fruits.findAll", query = "SELECT f FROM Fruit f")
+        @NamedQuery(name = "Fruits.findAll", query = "SELECT f FROM Fruit f"),
+        @NamedQuery(name = "Fruits.findByIds", query = "SELECT f FROM Fruit f WHERE f.id IN :ids"),
+        @NamedQuery(name = "Fruits.namesIn", query = "SELECT f.name FROM Fruit f WHERE f.name IN :names"),
+        // read-only projections: plain Fruit instances, never managed or snapshotted for dirty checking
+        @NamedQuery(name = "Fruits.viewAfter",
+                query = "SELECT NEW io.thorntail.example.Fruit(f.id, f.name, f.version) FROM Fruit f WHERE f.id > :after ORDER BY f.id"),
+        @NamedQuery(name = "Fruits.viewById",
+                query = "SELECT NEW io.thorntail.example.Fruit(f.id, f.name, f.version) FROM Fruit f WHERE f.id = :id"),
+        @NamedQuery(name = "Fruits.viewByIds",
+                query = "SELECT NEW io.thorntail.example.Fruit(f.id, f.name, f.version) FROM Fruit f WHERE f.id IN :ids"),
+        @NamedQuery(name = "Fruits.exists", query = "SELECT COUNT(f) FROM Fruit f WHERE f.id = :id"),
+        @NamedQuery(name = "Fruits.updateName", query = "UPDATE Fruit f SET f.name = :name, f.version = f.version + 1 WHERE f.id = :id"),
+        @NamedQuery(name = "Fruits.updateNameIfVersion",
+                query = "UPDATE Fruit f SET f.name = :name, f.version = f.version + 1 WHERE f.id = :id AND f.version = :version"),
+        @NamedQuery(name = "Fruits.delete", query = "DELETE FROM Fruit f WHERE f.id = :id"),
+        @NamedQuery(name = "Fruits.deleteIfVersion", query = "DELETE FROM Fruit f WHERE f.id = :id AND f.version = :version")
 })
 public class Fruit implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Number of ids reserved per sequence call. The sequence must be created with the same
+     * {@code INCREMENT BY}, so every {@code nextval} hands a disjoint block to a single node;
+     * {@link FruitSchemaCheck} verifies it at startup.
+     */
+    static final int ID_BLOCK_SIZE = 50;
+
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "fruitsSequence")
-    @SequenceGenerator(name = "fruitsSequence", sequenceName = "known_fruits_id_seq", allocationSize = 1, initialValue = 4)
+    @SequenceGenerator(name = "fruitsSequence", sequenceName = "known_fruits_id_seq", allocationSize = ID_BLOCK_SIZE, initialValue = 4)
     private Integer id;
 
     @Column(length = 40, unique = true)
     private String name;
 
+    @Version
+    private Integer version;
+
     public Fruit() {
     }
 
@@ -50,6 +76,12 @@ public class Fruit implements Serializable {
         this.name = name;
     }
 
+    public Fruit(Integer id, String name, Integer version) {
+        this.id = id;
+        this.name = name;
+        this.version = version;
+    }
+
     public Integer getId() {
         return id;
     }
@@ -66,6 +98,14 @@ public class Fruit implements Serializable {
         this.name = name;
     }
 
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return name + " " + id;
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.GET;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Rate limits {@link FruitResource} per client, so one client pulling the full list in a loop
+ * cannot starve the point reads and writes of everyone else. Each client has a read bucket and a
+ * write bucket in {@link TokenBuckets}. A point read or a page costs one read token, the unpaged
+ * list and the exports cost {@code fruits.rate-limit.cost.list}, a write one write token and a
+ * batch or import {@code fruits.rate-limit.cost.bulk}. Requests over the limit are answered with
+ * 429 and {@code Retry-After}.
+ * <p>
+ * Clients are told apart by {@code fruits.rate-limit.key-header}, such as an API key header, when
+ * it is set. Otherwise they are told apart by address: requests arriving from a trusted proxy,
+ * {@code fruits.rate-limit.trusted-proxies}, count for the right-most {@code X-Forwarded-For} entry
+ * that is not itself a trusted proxy. No proxy is trusted by default: pods on the cluster network
+ * can reach the service directly and send any {@code X-Forwarded-For}, so only the router's own
+ * addresses should be configured.
+ * The requests {@link FruitWarmup} sends to the service itself are not limited.
+ */
+@Provider
+@ApplicationScoped
+public class FruitAdmission implements DynamicFeature {
+    enum Cost {
+        QUERY, LIST, READ, WRITE, BULK
+    }
+
+    private static final int READ_BUCKET = 0;
+
+    private static final int WRITE_BUCKET = 1;
+
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+
+    private final LongAdder readRejections = new LongAdder();
+
+    private final LongAdder writeRejections = new LongAdder();
+
+    private TokenBuckets buckets;
+
+    private TokenBuckets.Limit readLimit;
+
+    private TokenBuckets.Limit writeLimit;
+
+    @Context
+    private HttpServletRequest servletRequest;
+
+    @Inject
+    private FruitWarmup warmup;
+
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.enabled", defaultValue = "true")
+    private boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.key-header")
+    private Optional<String> keyHeader;
+
+    /**
+     * Addresses whose {@code X-Forwarded-For} is believed; none by default, since any client can send one.
+     */
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.trusted-proxies")
+    private Optional<String> trustedProxies;
+
+    private Pattern trustedProxy;
+
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.buckets", defaultValue = "262144")
+    private int size;
+
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.read.per-second", defaultValue = "100")
+    private double readRate;
+
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.read.burst", defaultValue = "400")
+    private double readBurst;
+
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.write.per-second", defaultValue = "20")
+    private double writeRate;
+
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.write.burst", defaultValue = "50")
+    private double writeBurst;
+
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.cost.list", defaultValue = "20")
+    private int listCost;
+
+    @Inject
+    @ConfigProperty(name = "fruits.rate-limit.cost.bulk", defaultValue = "10")
+    private int bulkCost;
+
+    @PostConstruct
+    void start() {
+        buckets = new TokenBuckets(size);
+        readLimit = new TokenBuckets.Limit(readRate, readBurst);
+        writeLimit = new TokenBuckets.Limit(writeRate, writeBurst);
+        trustedProxy = trustedProxies.map(Pattern::compile).orElse(null);
+    }
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        if (!enabled || resourceInfo.getResourceClass() != FruitResource.class) {
+            return;
+        }
+        context.register(new AdmissionFilter(this, cost(resourceInfo)), Priorities.AUTHORIZATION);
+    }
+
+    public long getReadRejections() {
+        return readRejections.sum();
+    }
+
+    public long getWriteRejections() {
+        return writeRejections.sum();
+    }
+
+    private static Cost cost(ResourceInfo resourceInfo) {
+        String method = resourceInfo.getResourceMethod().getName();
+        switch (method) {
+            case "get":
+                return Cost.QUERY;
+            case "exportNdjson":
+            case "exportCsv":
+                return Cost.LIST;
+            case "batch":
+            case "importFruits":
+                return Cost.BULK;
+            default:
+                return resourceInfo.getResourceMethod().isAnnotationPresent(GET.class) ? Cost.READ : Cost.WRITE;
+        }
+    }
+
+    private Response admit(ContainerRequestContext request, Cost cost) {
+        if (warmup.isOwnRequest(request.getHeaderString(FruitWarmup.REQUEST_HEADER))) {
+            return null;
+        }
+
+        boolean write = cost == Cost.WRITE || cost == Cost.BULK;
+        long wait = buckets.acquire(TokenBuckets.key(write ? WRITE_BUCKET : READ_BUCKET, client(request)),
+                                    write ? writeLimit : readLimit,
+                                    tokens(request, cost));
+        if (wait == 0) {
+            return null;
+        }
+
+        (write ? writeRejections : readRejections).increment();
+        long seconds = Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        return Response.fromResponse(FruitService.error(429, "Too many requests, retry in " + seconds + "s."))
+                .header(HttpHeaders.RETRY_AFTER, seconds)
+                .build();
+    }
+
+    private int tokens(ContainerRequestContext request, Cost cost) {
+        switch (cost) {
+            case QUERY:
+                // without limit or ids it is the full-table read, pages and multi-gets are bounded
+                MultivaluedMap<String, String> query = request.getUriInfo().getQueryParameters();
+                return query.containsKey("limit") || query.containsKey("ids") ? 1 : listCost;
+            case LIST:
+                return listCost;
+            case BULK:
+                return bulkCost;
+            default:
+                return 1;
+        }
+    }
+
+    private String client(ContainerRequestContext request) {
+        if (keyHeader.isPresent()) {
+            String value = request.getHeaderString(keyHeader.get());
+            if (value != null && !value.trim().isEmpty()) {
+                return value.trim();
+            }
+        }
+
+        String address = servletRequest.getRemoteAddr();
+        String forwarded = request.getHeaderString(FORWARDED_FOR);
+        // each trusted proxy appended the address it saw, the first untrusted one from the right is the client
+        int end = forwarded != null && trustedProxy != null ? forwarded.length() : -1;
+        while (end >= 0 && trustedProxy.matcher(address).matches()) {
+            int start = forwarded.lastIndexOf(',', end - 1);
+            String entry = forwarded.substring(start + 1, end).trim();
+            if (!entry.isEmpty()) {
+                address = entry;
+            }
+            end = start;
+        }
+        return address;
+    }
+
+    @Priority(Priorities.AUTHORIZATION)
+    private static final class AdmissionFilter implements ContainerRequestFilter {
+        private final FruitAdmission admission;
+
+        private final Cost cost;
+
+        AdmissionFilter(FruitAdmission admission, Cost cost) {
+            this.admission = admission;
+            this.cost = cost;
+        }
+
+        @Override
+        public void filter(ContainerRequestContext request) {
+            Response rejection = admission.admit(request, cost);
+            if (rejection != null) {
+                request.abortWith(rejection);
+            }
+        }
+    }
+}
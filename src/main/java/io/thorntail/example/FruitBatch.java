@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.spi.JsonProvider;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies a chunk of batch operations or imported rows in a transaction of its own, so Hibernate
+ * can group the resulting statements into JDBC batches on flush.
+ */
+@ApplicationScoped
+public class FruitBatch {
+    private static final JsonProvider JSON = JsonProvider.provider();
+
+    @PersistenceContext(unitName = "MyPU")
+    private EntityManager em;
+
+    @Inject
+    private Event<FruitChange> changes;
+
+    @Inject
+    private Event<FruitImported> imports;
+
+    /**
+     * Operations are expected to be validated already. Missing ids are reported per item,
+     * any database failure rolls back the whole chunk. Operations on the same fruit apply in
+     * order, each seeing the row as the one before left it, just as if they had been sent one by one.
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public List<JsonObject> apply(List<Operation> operations) {
+        Map<Integer, Fruit> existing = load(operations);
+
+        List<JsonObject> results = new ArrayList<>(operations.size());
+        List<Fruit> touched = new ArrayList<>(operations.size());
+        Set<Integer> pendingIds = new HashSet<>();
+        for (Operation operation : operations) {
+            if (operation.id != null && !pendingIds.add(operation.id)) {
+                // flushed first so the earlier operation's result, version included, is its own
+                flush(operations.subList(results.size(), results.size() + touched.size()), touched, results);
+                pendingIds.clear();
+                pendingIds.add(operation.id);
+            }
+            Fruit entity;
+            switch (operation.type) {
+                case CREATE:
+                    entity = new Fruit(operation.name);
+                    em.persist(entity);
+                    break;
+                case UPDATE:
+                    entity = existing.get(operation.id);
+                    if (entity != null) {
+                        entity.setName(operation.name);
+                    }
+                    break;
+                default:
+                    entity = existing.remove(operation.id);
+                    if (entity != null) {
+                        em.remove(entity);
+                    }
+                    break;
+            }
+            touched.add(entity);
+        }
+        flush(operations.subList(results.size(), operations.size()), touched, results);
+        return results;
+    }
+
+    /**
+     * Inserts new fruits; any failure, such as a name taken meanwhile, rolls back all of them.
+     * Observers hear about them through one {@link FruitImported}.
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void insert(List<String> names) {
+        List<Fruit> created = new ArrayList<>(names.size());
+        for (String name : names) {
+            Fruit fruit = new Fruit(name);
+            em.persist(fruit);
+            created.add(fruit);
+        }
+        em.flush();
+        Map<Integer, String> ids = new LinkedHashMap<>(created.size() * 2);
+        for (Fruit fruit : created) {
+            ids.put(fruit.getId(), fruit.getName());
+        }
+        imports.fire(new FruitImported(ids));
+    }
+
+    /**
+     * The given names that are already taken.
+     */
+    public Set<String> existingNames(Collection<String> names) {
+        return new HashSet<>(em.createNamedQuery("Fruits.namesIn", String.class)
+                                     .setParameter("names", names)
+                                     .getResultList());
+    }
+
+    /**
+     * Flushes the pending operations and reports them, {@code touched} holding the entity of each or null.
+     */
+    private void flush(List<Operation> applied, List<Fruit> touched, List<JsonObject> results) {
+        em.flush();
+        for (int i = 0; i < applied.size(); i++) {
+            Operation operation = applied.get(i);
+            Fruit entity = touched.get(i);
+            if (entity == null) {
+                results.add(operation.failure(404, "Fruit with id of " + operation.id + " does not exist."));
+            } else if (operation.type == Operation.Type.DELETE) {
+                changes.fire(new FruitChange(FruitChange.Type.DELETED, entity.getId(), entity.getName()));
+                results.add(operation.result(204).build());
+            } else {
+                changes.fire(new FruitChange(operation.type == Operation.Type.CREATE ? FruitChange.Type.CREATED : FruitChange.Type.UPDATED,
+                                             entity.getId(), entity.getName()));
+                results.add(operation.result(operation.type == Operation.Type.CREATE ? 201 : 200)
+                                    .add("fruit", JSON.createObjectBuilder()
+                                            .add("id", entity.getId())
+                                            .add("name", entity.getName())
+                                            .add("version", entity.getVersion()))
+                                    .build());
+            }
+        }
+        touched.clear();
+    }
+
+    private Map<Integer, Fruit> load(List<Operation> operations) {
+        List<Integer> ids = new ArrayList<>();
+        for (Operation operation : operations) {
+            if (operation.id != null) {
+                ids.add(operation.id);
+            }
+        }
+
+        Map<Integer, Fruit> existing = new HashMap<>();
+        if (!ids.isEmpty()) {
+            for (Fruit fruit : em.createNamedQuery("Fruits.findByIds", Fruit.class)
+                    .setParameter("ids", ids)
+                    .getResultList()) {
+                existing.put(fruit.getId(), fruit);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * One validated item of a batch request.
+     */
+    public static class Operation {
+        public enum Type {
+            CREATE, UPDATE, DELETE
+        }
+
+        final int index;
+
+        final Type type;
+
+        final Integer id;
+
+        final String name;
+
+        Operation(int index, Type type, Integer id, String name) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.name = name;
+        }
+
+        JsonObjectBuilder result(int code) {
+            return JSON.createObjectBuilder()
+                    .add("index", index)
+                    .add("op", type.name().toLowerCase())
+                    .add("code", code);
+        }
+
+        JsonObject failure(int code, String message) {
+            return result(code)
+                    .add("error", message == null ? "Unknown error" : message)
+                    .build();
+        }
+    }
+}
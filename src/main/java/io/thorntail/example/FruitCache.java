@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Bounded read-through cache of fruits by id, in front of the point-read query.
+ * <p>
+ * Entries are dropped only once the transaction that changed them has committed. A load that
+ * overlaps such an invalidation is not cached, so a reader never puts back a value that a
+ * concurrent write has already replaced: the check and the insert happen under the lock the
+ * invalidation has to take to remove the entry.
+ * <p>
+ * The ids are spread over segments, each an access-ordered map that drops its least recently
+ * used entry once it holds its share of {@code fruits.cache.max-size}. Readers of different
+ * segments never contend.
+ */
+@ApplicationScoped
+public class FruitCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    @Inject
+    @ConfigProperty(name = "fruits.cache.max-size", defaultValue = "10000")
+    private int maxSize;
+
+    /**
+     * 0 turns the cache off, for deployments of several nodes that must not serve another node's stale writes.
+     */
+    @Inject
+    @ConfigProperty(name = "fruits.cache.ttl-seconds", defaultValue = "60")
+    private long ttlSeconds;
+
+    @PostConstruct
+    void start() {
+        int capacity = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    public Fruit get(Integer id, Function<Integer, Fruit> loader) {
+        Fruit cached = getIfPresent(id);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = generation();
+        Fruit fruit = loader.apply(id);
+        return fruit == null ? null : put(fruit, generation);
+    }
+
+    /**
+     * Returns the cached fruit without loading it, counting a hit or a miss.
+     */
+    public Fruit getIfPresent(Integer id) {
+        Fruit fruit = segment(id).get(id, System.nanoTime());
+        if (fruit != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return fruit;
+    }
+
+    /**
+     * Token to take before loading from the database and hand to {@link #put(Fruit, long)} afterwards.
+     */
+    public long generation() {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches a loaded fruit unless an invalidation happened since {@code generation} was taken.
+     * The fruit must be an unmanaged projection that nobody mutates afterwards.
+     */
+    public Fruit put(Fruit fruit, long generation) {
+        if (ttlSeconds <= 0) {
+            return fruit;
+        }
+        Segment segment = segment(fruit.getId());
+        synchronized (segment) {
+            if (invalidations.get() == generation) {
+                segment.put(fruit.getId(), new Entry(fruit, System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds)));
+            }
+        }
+        return fruit;
+    }
+
+    public void invalidate(Integer id) {
+        // counted before taking the lock, so a put waiting for it sees the new generation
+        invalidations.incrementAndGet();
+        Segment segment = segment(id);
+        synchronized (segment) {
+            segment.remove(id);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) FruitChange change) {
+        invalidate(change.getId());
+    }
+
+    private Segment segment(Integer id) {
+        int h = id.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private final class Segment extends LinkedHashMap<Integer, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        synchronized Fruit get(Integer id, long now) {
+            // the access-ordered lookup moves the entry to the young end
+            Entry entry = get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt - now <= 0) {
+                remove(id);
+                return null;
+            }
+            return entry.fruit;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            evictions.increment();
+            return true;
+        }
+    }
+
+    private static final class Entry {
+        final Fruit fruit;
+
+        final long expiresAt;
+
+        Entry(Fruit fruit, long expiresAt) {
+            this.fruit = fruit;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.json.JsonNumber;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A CBOR (RFC 8949) encoder for the fruit representations. It covers what the JSON
+ * representations use, which is maps, arrays, integers, text, floats, booleans and null, so any
+ * JSON-P value maps to CBOR. The service never reads CBOR; the tests decode it with Jackson's CBOR parser.
+ */
+final class FruitCbor {
+    static final String MEDIA_TYPE = "application/cbor";
+
+    static final MediaType CBOR = MediaType.valueOf(MEDIA_TYPE);
+
+    // the keys of every fruit, encoded once
+    private static final byte[] ID = text("id");
+
+    private static final byte[] NAME = text("name");
+
+    private static final byte[] VERSION = text("version");
+
+    private static final int BREAK = 0xff;
+
+    private final OutputStream out;
+
+    private final byte[] buffer = new byte[8192];
+
+    private int position;
+
+    FruitCbor(OutputStream out) {
+        this.out = out;
+    }
+
+    FruitCbor startArray(int size) throws IOException {
+        head(4, size);
+        return this;
+    }
+
+    /**
+     * Starts an array of unknown length, closed by {@link #end()}.
+     */
+    FruitCbor startArray() throws IOException {
+        put(0x9f);
+        return this;
+    }
+
+    FruitCbor startMap(int size) throws IOException {
+        head(5, size);
+        return this;
+    }
+
+    FruitCbor end() throws IOException {
+        put(BREAK);
+        return this;
+    }
+
+    FruitCbor write(long value) throws IOException {
+        if (value >= 0) {
+            head(0, value);
+        } else {
+            head(1, -1 - value);
+        }
+        return this;
+    }
+
+    FruitCbor write(String value) throws IOException {
+        if (value == null) {
+            return writeNull();
+        }
+        int length = value.length();
+        if (length <= buffer.length / 2) {
+            // ASCII, the usual case, is copied char by char without an intermediate byte array
+            ensure(length + 9);
+            int start = position;
+            head(3, length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    position = start;
+                    return writeUtf8(value);
+                }
+                buffer[position++] = (byte) c;
+            }
+            return this;
+        }
+        return writeUtf8(value);
+    }
+
+    private FruitCbor writeUtf8(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        head(3, bytes.length);
+        put(bytes);
+        return this;
+    }
+
+    FruitCbor write(boolean value) throws IOException {
+        put(value ? 0xf5 : 0xf4);
+        return this;
+    }
+
+    FruitCbor write(double value) throws IOException {
+        ensure(9);
+        buffer[position++] = (byte) 0xfb;
+        putLong(Double.doubleToLongBits(value));
+        return this;
+    }
+
+    FruitCbor writeNull() throws IOException {
+        put(0xf6);
+        return this;
+    }
+
+    FruitCbor write(Integer id, String name, Integer version) throws IOException {
+        put(0xa3);
+        put(ID);
+        if (id == null) {
+            writeNull();
+        } else {
+            write(id.longValue());
+        }
+        put(NAME);
+        write(name);
+        put(VERSION);
+        if (version == null) {
+            writeNull();
+        } else {
+            write(version.longValue());
+        }
+        return this;
+    }
+
+    FruitCbor write(Fruit fruit) throws IOException {
+        return write(fruit.getId(), fruit.getName(), fruit.getVersion());
+    }
+
+    FruitCbor write(JsonValue value) throws IOException {
+        switch (value.getValueType()) {
+            case OBJECT:
+                Map<String, JsonValue> object = value.asJsonObject();
+                startMap(object.size());
+                for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
+                    write(entry.getKey());
+                    write(entry.getValue());
+                }
+                return this;
+            case ARRAY:
+                startArray(value.asJsonArray().size());
+                for (JsonValue item : value.asJsonArray()) {
+                    write(item);
+                }
+                return this;
+            case STRING:
+                return write(((JsonString) value).getString());
+            case NUMBER:
+                JsonNumber number = (JsonNumber) value;
+                return number.isIntegral() && number.bigIntegerValue().bitLength() < 64
+                        ? write(number.longValue())
+                        : write(number.doubleValue());
+            case TRUE:
+                return write(true);
+            case FALSE:
+                return write(false);
+            default:
+                return writeNull();
+        }
+    }
+
+    /**
+     * Hands the buffered bytes to the underlying stream and flushes it.
+     */
+    void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    private void head(int major, long value) throws IOException {
+        ensure(9);
+        int type = major << 5;
+        if (value < 24) {
+            buffer[position++] = (byte) (type | (int) value);
+        } else if (value < 0x100) {
+            buffer[position++] = (byte) (type | 24);
+            buffer[position++] = (byte) value;
+        } else if (value < 0x10000) {
+            buffer[position++] = (byte) (type | 25);
+            buffer[position++] = (byte) (value >>> 8);
+            buffer[position++] = (byte) value;
+        } else if (value < 0x100000000L) {
+            buffer[position++] = (byte) (type | 26);
+            buffer[position++] = (byte) (value >>> 24);
+            buffer[position++] = (byte) (value >>> 16);
+            buffer[position++] = (byte) (value >>> 8);
+            buffer[position++] = (byte) value;
+        } else {
+            buffer[position++] = (byte) (type | 27);
+            putLong(value);
+        }
+    }
+
+    private void putLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void put(int b) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) b;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            drain();
+            out.write(bytes);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    private static byte[] text(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = new byte[bytes.length + 1];
+        encoded[0] = (byte) (0x60 | bytes.length);
+        System.arraycopy(bytes, 0, encoded, 1, bytes.length);
+        return encoded;
+    }
+}
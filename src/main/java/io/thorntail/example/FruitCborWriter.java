@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.json.JsonValue;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Collection;
+
+/**
+ * Writes fruits, fruit lists and JSON-P values, which covers every fruit entity including error
+ * bodies, as CBOR for clients that ask for {@value FruitCbor#MEDIA_TYPE}.
+ */
+@Provider
+@Produces(FruitCbor.MEDIA_TYPE)
+@ApplicationScoped
+public class FruitCborWriter implements MessageBodyWriter<Object> {
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return Fruit.class.isAssignableFrom(type)
+                || Fruit[].class.isAssignableFrom(type)
+                || Collection.class.isAssignableFrom(type)
+                || JsonValue.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> headers, OutputStream output) throws IOException {
+        FruitCbor cbor = new FruitCbor(output);
+        if (entity instanceof Fruit) {
+            cbor.write((Fruit) entity);
+        } else if (entity instanceof Fruit[]) {
+            Fruit[] fruits = (Fruit[]) entity;
+            cbor.startArray(fruits.length);
+            for (Fruit fruit : fruits) {
+                cbor.write(fruit);
+            }
+        } else if (entity instanceof Collection) {
+            Collection<?> items = (Collection<?>) entity;
+            cbor.startArray(items.size());
+            for (Object item : items) {
+                if (item instanceof Fruit) {
+                    cbor.write((Fruit) item);
+                } else {
+                    cbor.write((JsonValue) item);
+                }
+            }
+        } else {
+            cbor.write((JsonValue) entity);
+        }
+        cbor.flush();
+    }
+}
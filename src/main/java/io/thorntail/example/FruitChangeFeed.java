@@ -0,0 +1,403 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.spi.JsonProvider;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Committed fruit changes, numbered by a token and kept in a ring buffer of the last
+ * {@code fruits.changes.history} entries, for Server-Sent Events subscribers and catch-up reads.
+ * <p>
+ * Publishing only stores the change and schedules the subscribers; each subscriber reads from
+ * the ring at its own pace on a sender pool, so no thread is held by an idle subscriber. A
+ * subscriber more than {@code fruits.changes.max-pending} changes behind is disconnected; when it
+ * reconnects that far behind it gets a {@code reset} event with the current token instead of a replay.
+ * <p>
+ * RESTEasy's {@link SseEventSink#send} blocks until the event is flushed, and its {@code close}
+ * waits for a send in progress. So a subscriber whose send has not returned after
+ * {@code fruits.changes.send-timeout-ms} is detached: it is never scheduled again and its sink
+ * is closed once the write returns, at the latest after the listener's write timeout. Meanwhile the
+ * pool grows up to {@code fruits.changes.max-senders} threads, so stalled clients do not hold up the
+ * others; past that, subscribers with changes to send wait in the pool's queue, which holds each
+ * subscriber at most once.
+ */
+@ApplicationScoped
+public class FruitChangeFeed {
+    private static final JsonProvider JSON = JsonProvider.provider();
+
+    private final AtomicLong latest = new AtomicLong();
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private AtomicReferenceArray<Change> history;
+
+    private ExecutorService senders;
+
+    private ScheduledExecutorService heartbeats;
+
+    @Resource(lookup = "java:comp/DefaultManagedThreadFactory")
+    private ManagedThreadFactory threadFactory;
+
+    @Inject
+    @ConfigProperty(name = "fruits.changes.history", defaultValue = "4096")
+    private int historySize;
+
+    @Inject
+    @ConfigProperty(name = "fruits.changes.max-pending", defaultValue = "256")
+    private int maxPending;
+
+    @Inject
+    @ConfigProperty(name = "fruits.changes.max-senders", defaultValue = "32")
+    private int maxSenders;
+
+    @Inject
+    @ConfigProperty(name = "fruits.changes.send-timeout-ms", defaultValue = "5000")
+    private long sendTimeoutMillis;
+
+    @Inject
+    @ConfigProperty(name = "fruits.changes.heartbeat-seconds", defaultValue = "15")
+    private long heartbeatSeconds;
+
+    @PostConstruct
+    void start() {
+        history = new AtomicReferenceArray<>(historySize);
+        // threads start up to max-senders, then drains wait in the queue, which holds each subscriber at most once
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxSenders, maxSenders, 60, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        senders = pool;
+        heartbeats = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        long check = Math.max(1, sendTimeoutMillis / 2);
+        heartbeats.scheduleWithFixedDelay(this::detachStalled, check, check, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        heartbeats.shutdownNow();
+        senders.shutdownNow();
+        subscribers.forEach(Subscriber::close);
+    }
+
+    /**
+     * Token of the most recent change; changes after it are returned by {@link #since(long)}.
+     */
+    public long latest() {
+        return latest.get();
+    }
+
+    /**
+     * Changes after {@code token} in order, or {@code null} when some of them are no longer kept.
+     */
+    public List<JsonObject> since(long token) {
+        long last = latest.get();
+        if (token > last) {
+            return new ArrayList<>();
+        }
+        if (last - token > historySize) {
+            return null;
+        }
+
+        List<JsonObject> changes = new ArrayList<>((int) (last - token));
+        for (long next = token + 1; next <= last; next++) {
+            Change change = history.get(index(next));
+            if (change == null || change.token < next) {
+                // still being published; the caller gets it next time
+                break;
+            }
+            if (change.token > next) {
+                return null;
+            }
+            changes.add(change.json);
+        }
+        return changes;
+    }
+
+    /**
+     * Streams changes after {@code token} to {@code sink} until the client disconnects or falls behind.
+     */
+    public void subscribe(SseEventSink sink, Sse sse, long token) {
+        long last = latest.get();
+        if (last - token > maxPending) {
+            // too far behind to replay: the client has to reload the list and resume from the current token
+            sink.send(sse.newEventBuilder()
+                              .name("reset")
+                              .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                              .data(JSON.createObjectBuilder().add("token", last).build().toString())
+                              .build())
+                    .whenComplete((ignored, failure) -> sink.close());
+            return;
+        }
+
+        Subscriber subscriber = new Subscriber(sink, sse, Math.min(token, last));
+        subscribers.add(subscriber);
+        subscriber.schedule();
+    }
+
+    public int getSubscribers() {
+        return subscribers.size();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) FruitChange change) {
+        // readers that see the new token before its slot is written stop there and retry later
+        long token = latest.incrementAndGet();
+        publish(new Change(token, change));
+    }
+
+    void onImport(@Observes(during = TransactionPhase.AFTER_SUCCESS) FruitImported imported) {
+        long token = latest.incrementAndGet();
+        publish(new Change(token, imported));
+    }
+
+    private void publish(Change change) {
+        history.set(index(change.token), change);
+
+        for (Subscriber subscriber : subscribers) {
+            subscriber.schedule();
+        }
+    }
+
+    private void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.heartbeat = true;
+            subscriber.schedule();
+        }
+    }
+
+    private void detachStalled() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            long since = subscriber.sendingSince;
+            if (since != 0 && now - since > TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis)) {
+                // closing the sink here would block behind the stuck send, the sender closes it once the send returns
+                subscriber.stalled = true;
+                subscribers.remove(subscriber);
+                dropped.increment();
+            }
+        }
+    }
+
+    private int index(long token) {
+        return (int) (token % historySize);
+    }
+
+    private static final class Change {
+        private final long token;
+
+        private final JsonObject json;
+
+        private volatile OutboundSseEvent event;
+
+        Change(long token, FruitChange change) {
+            this.token = token;
+            JsonObjectBuilder json = JSON.createObjectBuilder()
+                    .add("token", token)
+                    .add("type", change.getType().name().toLowerCase())
+                    .add("id", change.getId());
+            if (change.getName() == null) {
+                json.addNull("name");
+            } else {
+                json.add("name", change.getName());
+            }
+            this.json = json.build();
+        }
+
+        /**
+         * One change for a whole import chunk; subscribers reload the list instead of getting every row.
+         */
+        Change(long token, FruitImported imported) {
+            this.token = token;
+            this.json = JSON.createObjectBuilder()
+                    .add("token", token)
+                    .add("type", "imported")
+                    .add("count", imported.getCreated().size())
+                    .build();
+        }
+
+        OutboundSseEvent event(Sse sse) {
+            OutboundSseEvent built = event;
+            if (built == null) {
+                // built once and shared by every subscriber; a racing duplicate is harmless
+                built = sse.newEventBuilder()
+                        .id(String.valueOf(token))
+                        .name(json.getString("type"))
+                        .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                        .data(json.toString())
+                        .build();
+                event = built;
+            }
+            return built;
+        }
+    }
+
+    private final class Subscriber implements Runnable {
+        private final SseEventSink sink;
+
+        private final Sse sse;
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private volatile boolean heartbeat;
+
+        /**
+         * When the send in progress started, 0 when none is.
+         */
+        private volatile long sendingSince;
+
+        private volatile boolean stalled;
+
+        /**
+         * Token of the last change sent; only touched by the one sender draining this subscriber.
+         */
+        private long sent;
+
+        Subscriber(SseEventSink sink, Sse sse, long sent) {
+            this.sink = sink;
+            this.sse = sse;
+            this.sent = sent;
+        }
+
+        void schedule() {
+            if (!stalled && scheduled.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // shutting down
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                drain();
+            } catch (RuntimeException e) {
+                close();
+                return;
+            } finally {
+                scheduled.set(false);
+            }
+            if (stalled) {
+                close();
+                return;
+            }
+            if (sent < latest.get() && !sink.isClosed()) {
+                // a change published while draining may have found this subscriber still scheduled
+                schedule();
+            }
+        }
+
+        private void drain() {
+            if (sink.isClosed()) {
+                close();
+                return;
+            }
+            boolean wrote = false;
+            long last = latest.get();
+            while (sent < last) {
+                if (stalled || latest.get() - sent > maxPending) {
+                    // detached, or fell behind while this drain was writing
+                    if (!stalled) {
+                        dropped.increment();
+                    }
+                    close();
+                    return;
+                }
+                Change change = history.get(index(sent + 1));
+                if (change == null || change.token <= sent) {
+                    break;
+                }
+                if (change.token > sent + 1) {
+                    // overwritten before it could be sent
+                    dropped.increment();
+                    close();
+                    return;
+                }
+                send(change.event(sse));
+                sent = change.token;
+                wrote = true;
+            }
+
+            if (heartbeat) {
+                heartbeat = false;
+                if (!wrote) {
+                    // keeps idle connections open through proxies and notices clients that went away
+                    send(sse.newEventBuilder().comment("").build());
+                }
+            }
+        }
+
+        private void send(OutboundSseEvent event) {
+            sendingSince = System.nanoTime();
+            try {
+                sink.send(event).whenComplete((ignored, failure) -> {
+                    if (failure != null) {
+                        close();
+                    }
+                });
+            } finally {
+                sendingSince = 0;
+            }
+        }
+
+        void close() {
+            subscribers.remove(this);
+            try {
+                sink.close();
+            } catch (RuntimeException e) {
+                // already gone
+            }
+        }
+    }
+}
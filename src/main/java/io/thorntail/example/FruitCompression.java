@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Compresses responses with gzip or deflate, as negotiated by {@code Accept-Encoding}, once they
+ * grow past {@code fruits.compression.min-bytes}. Smaller bodies are not worth the CPU and go
+ * out as they are. Responses that already carry a {@code Content-Encoding}, such as the
+ * pre-compressed fruit list, and event streams are left alone. So are responses with an
+ * {@code ETag}: the tag names one representation, and the resource that evaluated the
+ * preconditions against it is the one to pick the coding, as the fruit list does.
+ */
+@Provider
+@ApplicationScoped
+public class FruitCompression implements ContainerResponseFilter, WriterInterceptor {
+    private static final String CODING = FruitCompression.class.getName() + ".coding";
+
+    @Inject
+    @ConfigProperty(name = "fruits.compression.min-bytes", defaultValue = "1024")
+    private int minBytes;
+
+    @Inject
+    @ConfigProperty(name = "fruits.compression.level", defaultValue = "6")
+    private int level;
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        MultivaluedMap<String, Object> headers = response.getHeaders();
+        if (!response.hasEntity()
+                || headers.containsKey(HttpHeaders.CONTENT_ENCODING)
+                || headers.containsKey(HttpHeaders.ETAG)
+                || MediaType.SERVER_SENT_EVENTS_TYPE.isCompatible(response.getMediaType())) {
+            return;
+        }
+        if (response.getEntity() instanceof byte[] && ((byte[]) response.getEntity()).length < minBytes) {
+            return;
+        }
+
+        List<Object> vary = headers.get(HttpHeaders.VARY);
+        if (vary == null || !vary.contains(HttpHeaders.ACCEPT_ENCODING)) {
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        String coding = coding(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (coding != null) {
+            request.setProperty(CODING, coding);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        String coding = (String) context.getProperty(CODING);
+        if (coding == null) {
+            context.proceed();
+            return;
+        }
+        ThresholdOutputStream output = new ThresholdOutputStream(context.getOutputStream(), context.getHeaders(), coding);
+        context.setOutputStream(output);
+        context.proceed();
+        output.close();
+    }
+
+    /**
+     * gzip if acceptable, else deflate, else {@code null}; a zero quality rules a coding out.
+     */
+    static String coding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (parts.length > 1 && parts[1].replace(" ", "").matches("q=0(\\.0*)?")) {
+                continue;
+            }
+            if ("gzip".equalsIgnoreCase(name)) {
+                return "gzip";
+            }
+            deflate |= "deflate".equalsIgnoreCase(name);
+        }
+        return deflate ? "deflate" : null;
+    }
+
+    /**
+     * Holds back the first {@code minBytes} and only starts compressing when the body outgrows them,
+     * so the decision, and the Content-Encoding header, come before the first byte is sent.
+     */
+    private final class ThresholdOutputStream extends OutputStream {
+        private final OutputStream output;
+
+        private final MultivaluedMap<String, Object> headers;
+
+        private final String coding;
+
+        private final byte[] buffer = new byte[minBytes];
+
+        private int count;
+
+        private Deflater deflater;
+
+        private DeflaterOutputStream compressed;
+
+        private boolean closed;
+
+        ThresholdOutputStream(OutputStream output, MultivaluedMap<String, Object> headers, String coding) {
+            this.output = output;
+            this.headers = headers;
+            this.coding = coding;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (compressed == null && count + len <= buffer.length) {
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+                return;
+            }
+            if (compressed == null) {
+                startCompression();
+            }
+            compressed.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // flushing while still buffering would force the decision early
+            if (compressed != null) {
+                compressed.flush();
+            }
+        }
+
+        /**
+         * Finishes the body, leaving the container's stream open.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (compressed == null) {
+                output.write(buffer, 0, count);
+                return;
+            }
+            try {
+                compressed.finish();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private void startCompression() throws IOException {
+            headers.putSingle(HttpHeaders.CONTENT_ENCODING, coding);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            if ("gzip".equals(coding)) {
+                compressed = new GZIPOutputStream(output, 8192) {
+                    {
+                        def.setLevel(level);
+                        deflater = def;
+                    }
+                };
+            } else {
+                deflater = new Deflater(level);
+                compressed = new DeflaterOutputStream(output, deflater, 8192);
+            }
+            compressed.write(buffer, 0, count);
+        }
+    }
+}
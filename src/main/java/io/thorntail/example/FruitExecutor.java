@@ -0,0 +1,327 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Runs blocking database work off the HTTP worker threads, on a fixed pool sized to the
+ * {@code MyDS} connection pool so threads never wait for connections, in front of a bounded queue.
+ * When the queue is full, or a request waits longer than its timeout, the request is answered
+ * with 503 and {@code Retry-After} right away, which keeps workers free for health probes and
+ * cheap requests while the database is slow. A request that times out once its work has started
+ * gets 503 without {@code Retry-After}: the work goes on and may still commit, so repeating a
+ * write blindly could apply it twice.
+ * <p>
+ * Imports run for minutes, so they get a pool of their own, {@code fruits.import.threads}
+ * threads in front of {@code fruits.import.queue-size} waiting imports, and never hold up or
+ * skew the latencies of the request pool.
+ */
+@ApplicationScoped
+public class FruitExecutor {
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private ThreadPoolExecutor executor;
+
+    private ThreadPoolExecutor imports;
+
+    private RollingPercentile latencies;
+
+    @Resource(lookup = "java:comp/DefaultManagedThreadFactory")
+    private ManagedThreadFactory threadFactory;
+
+    // writes the responses of work completed elsewhere, such as group commits
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService")
+    private ManagedExecutorService responses;
+
+    @Inject
+    private DataSourcePool pool;
+
+    /**
+     * Number of threads; 0 sizes the executor to the max pool size of {@code MyDS}.
+     */
+    @Inject
+    @ConfigProperty(name = "fruits.db.threads", defaultValue = "0")
+    private int threads;
+
+    @Inject
+    @ConfigProperty(name = "fruits.db.queue-size", defaultValue = "100")
+    private int queueSize;
+
+    @Inject
+    @ConfigProperty(name = "fruits.import.threads", defaultValue = "1")
+    private int importThreads;
+
+    @Inject
+    @ConfigProperty(name = "fruits.import.queue-size", defaultValue = "1")
+    private int importQueueSize;
+
+    @Inject
+    @ConfigProperty(name = "fruits.db.retry-after-seconds", defaultValue = "1")
+    private int retryAfterSeconds;
+
+    /**
+     * How far back {@link #getP99Millis()} looks.
+     */
+    @Inject
+    @ConfigProperty(name = "fruits.db.latency-window-seconds", defaultValue = "10")
+    private int latencyWindowSeconds;
+
+    /**
+     * Added to every task, to try the overload behaviour locally against a fast database.
+     */
+    @Inject
+    @ConfigProperty(name = "fruits.db.simulated-latency-ms", defaultValue = "0")
+    private long simulatedLatencyMillis;
+
+    @PostConstruct
+    void start() {
+        int size = threads > 0 ? threads : (int) pool.getMaxPoolSize(DataSourcePool.PRIMARY);
+        if (size <= 0) {
+            // the datasources subsystem default
+            size = 20;
+        }
+        executor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<>(queueSize), threadFactory);
+        imports = new ThreadPoolExecutor(importThreads, importThreads, 0, TimeUnit.MILLISECONDS,
+                                         new ArrayBlockingQueue<>(importQueueSize), threadFactory);
+        latencies = new RollingPercentile(latencyWindowSeconds);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+        imports.shutdownNow();
+    }
+
+    /**
+     * Resumes {@code response} with the outcome of {@code task}, or with 503 when the task cannot
+     * be queued or does not finish within {@code timeoutMillis}. A task that times out while still
+     * queued never runs; one that is already running completes, including its commit.
+     */
+    public void submit(AsyncResponse response, long timeoutMillis, Callable<Response> task) {
+        submit(executor, latencies, "Too many requests are waiting for the database.", response, timeoutMillis, task);
+    }
+
+    /**
+     * {@link #submit} on the import pool.
+     */
+    public void submitImport(AsyncResponse response, long timeoutMillis, Callable<Response> task) {
+        submit(imports, null, "Too many imports are waiting.", response, timeoutMillis, task);
+    }
+
+    /**
+     * Resumes {@code response} once {@code result} completes, with the same 503 answers as
+     * {@link #submit} when the work was rejected or takes longer than {@code timeoutMillis}.
+     */
+    public void resume(AsyncResponse response, long timeoutMillis, CompletionStage<Response> result) {
+        // grouped work runs on a thread of its own, outside any single request's timing
+        RequestTiming.take();
+        response.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(timedOut -> {
+            timeouts.increment();
+            // the grouped write may be queued or already committing, there is no telling
+            timedOut.resume(stillRunning());
+        });
+        result.whenCompleteAsync((value, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof RejectedExecutionException) {
+                rejected.increment();
+                response.resume(unavailable(cause.getMessage()));
+            } else if (cause != null) {
+                response.resume(cause);
+            } else {
+                response.resume(value);
+            }
+        }, responses);
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getCompleted() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * 99th percentile of the time tasks spent running, queueing excluded, over the latency window.
+     */
+    public double getP99Millis() {
+        return latencies.percentileMillis(0.99);
+    }
+
+    /**
+     * Tasks behind {@link #getP99Millis()}.
+     */
+    public long getLatencySamples() {
+        return latencies.count();
+    }
+
+    private void submit(ThreadPoolExecutor pool, RollingPercentile recorded, String busy,
+                        AsyncResponse response, long timeoutMillis, Callable<Response> task) {
+        // the request's timing, if sampled, follows the work onto the executor thread
+        Task work = new Task(response, task, RequestTiming.take(), recorded);
+        // armed before the task is queued, so even a task that finishes right away cannot race it
+        response.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(timedOut -> {
+            timeouts.increment();
+            if (work.state.compareAndSet(Task.QUEUED, Task.CANCELLED)) {
+                pool.remove(work);
+                timedOut.resume(unavailable("The database did not answer in time."));
+            } else {
+                timedOut.resume(stillRunning());
+            }
+        });
+        try {
+            pool.execute(work);
+        } catch (RejectedExecutionException e) {
+            if (work.state.compareAndSet(Task.QUEUED, Task.CANCELLED)) {
+                rejected.increment();
+                response.resume(unavailable(busy));
+            }
+        }
+    }
+
+    private void run(Task work) {
+        AsyncResponse response = work.response;
+        if (response.isDone()) {
+            return;
+        }
+        RequestTiming timing = work.timing;
+        if (timing != null) {
+            timing.addQueue(System.nanoTime() - work.submitted);
+            timing.bind();
+        }
+        try {
+            long started = System.nanoTime();
+            if (simulatedLatencyMillis > 0) {
+                Thread.sleep(simulatedLatencyMillis);
+            }
+            Response result;
+            try {
+                result = work.task.call();
+            } finally {
+                if (work.latencies != null) {
+                    work.latencies.record(System.nanoTime() - started);
+                }
+            }
+            response.resume(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.resume(unavailable("The request was interrupted."));
+        } catch (Throwable e) {
+            response.resume(e);
+        } finally {
+            if (timing != null) {
+                timing.unbind();
+            }
+        }
+    }
+
+    private Response unavailable(String message) {
+        return Response.fromResponse(FruitService.error(503, message))
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                .build();
+    }
+
+    private static Response stillRunning() {
+        return FruitService.error(503, "The database did not answer in time; the request is still running and may yet be applied.");
+    }
+
+    /**
+     * One submitted request. The executor thread and the timeout handler race for it through
+     * {@link #state}, so it either runs or is answered as timed out in the queue, never both.
+     */
+    private final class Task implements Runnable {
+        static final int QUEUED = 0;
+
+        static final int RUNNING = 1;
+
+        static final int CANCELLED = 2;
+
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+
+        final AsyncResponse response;
+
+        final Callable<Response> task;
+
+        final RequestTiming timing;
+
+        /**
+         * Where the running time is recorded, null for work kept out of {@link #getP99Millis()}.
+         */
+        final RollingPercentile latencies;
+
+        final long submitted = System.nanoTime();
+
+        Task(AsyncResponse response, Callable<Response> task, RequestTiming timing, RollingPercentile latencies) {
+            this.response = response;
+            this.task = task;
+            this.timing = timing;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public void run() {
+            if (state.compareAndSet(QUEUED, RUNNING)) {
+                FruitExecutor.this.run(this);
+            }
+        }
+    }
+}
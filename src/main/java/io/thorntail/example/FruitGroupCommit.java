@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Meter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+/**
+ * Opt-in group commit for single creates and updates. Concurrent writes are queued and applied
+ * by one committer thread through {@link FruitBatch}, in one transaction per group of up to
+ * {@code fruits.group-commit.max-size} writes that arrived within
+ * {@code fruits.group-commit.max-delay-ms} of the first. That costs one commit, and one fsync,
+ * per group instead of per write.
+ * <p>
+ * Every write still gets its own result. When a group fails, for example on a name that is
+ * already taken, its writes are retried one per transaction, so only the conflicting one fails.
+ */
+@ApplicationScoped
+public class FruitGroupCommit {
+    private static final Logger LOG = Logger.getLogger(FruitGroupCommit.class.getName());
+
+    private BlockingQueue<Pending> queue;
+
+    private Thread committer;
+
+    @Resource(lookup = "java:comp/DefaultManagedThreadFactory")
+    private ManagedThreadFactory threadFactory;
+
+    @Inject
+    private FruitBatch batch;
+
+    @Inject
+    @ConfigProperty(name = "fruits.group-commit.enabled", defaultValue = "false")
+    private boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "fruits.group-commit.max-size", defaultValue = "50")
+    private int maxSize;
+
+    @Inject
+    @ConfigProperty(name = "fruits.group-commit.max-delay-ms", defaultValue = "2")
+    private long maxDelayMillis;
+
+    @Inject
+    @ConfigProperty(name = "fruits.group-commit.queue-size", defaultValue = "1000")
+    private int queueSize;
+
+    @Inject
+    @Metric(name = "fruits.group-commit.writes", absolute = true)
+    private Meter writes;
+
+    @Inject
+    @Metric(name = "fruits.group-commit.commits", absolute = true)
+    private Meter commits;
+
+    @Inject
+    @Metric(name = "fruits.group-commit.size", absolute = true)
+    private Histogram sizes;
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueSize);
+        committer = threadFactory.newThread(this::commitLoop);
+        committer.setName("fruits-group-commit");
+        committer.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (committer != null) {
+            committer.interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a validated write. The result has the shape of a {@link FruitBatch} item result. The
+     * future fails with {@link RejectedExecutionException} when the queue is full.
+     */
+    public CompletableFuture<JsonObject> submit(FruitBatch.Operation.Type type, Integer id, String name) {
+        Pending pending = new Pending(type, id, name);
+        if (!queue.offer(pending)) {
+            pending.result.completeExceptionally(new RejectedExecutionException("Too many writes are waiting to be committed."));
+        }
+        return pending.result;
+    }
+
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    private void commitLoop() {
+        List<Pending> group = new ArrayList<>(maxSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                group.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (group.size() < maxSize) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+                try {
+                    commit(group);
+                } catch (RuntimeException e) {
+                    // this is the only committer, so it fails the group and goes on with the next one
+                    LOG.log(Level.WARNING, "Group of " + group.size() + " writes could not be committed", e);
+                    group.forEach(pending -> pending.result.completeExceptionally(e));
+                }
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            List<Pending> left = new ArrayList<>(group);
+            queue.drainTo(left);
+            left.forEach(pending -> pending.result.completeExceptionally(
+                    new RejectedExecutionException("The service is shutting down.")));
+        }
+    }
+
+    private void commit(List<Pending> group) {
+        List<FruitBatch.Operation> operations = new ArrayList<>(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            Pending pending = group.get(i);
+            operations.add(new FruitBatch.Operation(i, pending.type, pending.id, pending.name));
+        }
+        writes.mark(group.size());
+        sizes.update(group.size());
+
+        List<JsonObject> results;
+        try {
+            results = batch.apply(operations);
+            commits.mark();
+        } catch (Exception e) {
+            LOG.log(Level.FINE, "Group of " + group.size() + " writes failed, retrying them one by one", e);
+            results = new ArrayList<>(group.size());
+            for (FruitBatch.Operation operation : operations) {
+                try {
+                    results.addAll(batch.apply(Collections.singletonList(operation)));
+                    commits.mark();
+                } catch (Exception ex) {
+                    results.add(operation.failure(500, ex.getMessage()));
+                }
+            }
+        }
+        if (results.size() != group.size()) {
+            throw new IllegalStateException(results.size() + " results for a group of " + group.size() + " writes");
+        }
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).result.complete(results.get(i));
+        }
+    }
+
+    private static final class Pending {
+        final FruitBatch.Operation.Type type;
+
+        final Integer id;
+
+        final String name;
+
+        final CompletableFuture<JsonObject> result = new CompletableFuture<>();
+
+        Pending(FruitBatch.Operation.Type type, Integer id, String name) {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.json.JsonArrayBuilder;
+import javax.json.spi.JsonProvider;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Streams rows from an NDJSON or CSV body into {@code known_fruits}, committing every
+ * {@code fruits.import.chunk-size} rows through {@link FruitBatch}. Committed chunks stay committed
+ * when a later one fails or the import stops on a duplicate name.
+ */
+@ApplicationScoped
+public class FruitImport {
+    private static final JsonProvider JSON = JsonProvider.provider();
+
+    private static final Logger LOG = Logger.getLogger(FruitImport.class.getName());
+
+    private static final int MAX_NAME_LENGTH = 40;
+
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    @Inject
+    private FruitBatch batch;
+
+    @Inject
+    @ConfigProperty(name = "fruits.import.chunk-size", defaultValue = "1000")
+    private int chunkSize;
+
+    /**
+     * Rows between progress log lines; 0 or less logs only the summary.
+     */
+    @Inject
+    @ConfigProperty(name = "fruits.import.progress-rows", defaultValue = "100000")
+    private long progressRows;
+
+    /**
+     * @param onDuplicate {@code skip} to count names that already exist and go on, {@code fail} to
+     *                    stop before the chunk holding the first one
+     */
+    public Response run(InputStream body, boolean csv, String onDuplicate) throws IOException {
+        if (!"skip".equals(onDuplicate) && !"fail".equals(onDuplicate)) {
+            return FruitService.error(422, "onDuplicate must be skip or fail.");
+        }
+        FruitImportReader reader = new FruitImportReader(body, csv);
+        String headerError = reader.readHeader();
+        if (headerError != null) {
+            return FruitService.error(422, headerError);
+        }
+
+        Progress progress = new Progress("fail".equals(onDuplicate));
+        List<FruitImportReader.Row> chunk = new ArrayList<>(chunkSize);
+        FruitImportReader.Row row;
+        while (!progress.stopped && (row = reader.next()) != null) {
+            progress.rows++;
+            String error = row.error != null ? row.error : validate(row.name);
+            if (error != null) {
+                progress.fail(row.line, error);
+            } else {
+                chunk.add(row);
+            }
+            if (chunk.size() == chunkSize) {
+                insert(chunk, progress);
+                chunk.clear();
+            }
+            if (progressRows > 0 && progress.rows % progressRows == 0) {
+                LOG.info(() -> "Import at " + progress.rows + " rows, " + progress.rowsPerSecond() + " rows/s");
+            }
+        }
+        if (!progress.stopped && !chunk.isEmpty()) {
+            insert(chunk, progress);
+        }
+
+        LOG.info(() -> "Imported " + progress.inserted + " of " + progress.rows + " rows in " + progress.seconds()
+                + "s, " + progress.rowsPerSecond() + " rows/s");
+        return Response.status(progress.stopped ? 409 : 200)
+                .entity(JSON.createObjectBuilder()
+                                .add("rows", progress.rows)
+                                .add("inserted", progress.inserted)
+                                .add("duplicates", progress.duplicates)
+                                .add("failed", progress.failed)
+                                .add("completed", !progress.stopped)
+                                .add("seconds", progress.seconds())
+                                .add("rowsPerSecond", progress.rowsPerSecond())
+                                .add("errors", progress.errors)
+                                .build())
+                .build();
+    }
+
+    private void insert(List<FruitImportReader.Row> chunk, Progress progress) {
+        Set<String> names = new LinkedHashSet<>(chunk.size());
+        for (FruitImportReader.Row row : chunk) {
+            names.add(row.name);
+        }
+        Set<String> existing = batch.existingNames(names);
+
+        // the names to insert, in file order, without the ones taken in the table or earlier in the file
+        names.clear();
+        List<FruitImportReader.Row> duplicates = new ArrayList<>();
+        for (FruitImportReader.Row row : chunk) {
+            if (existing.contains(row.name) || !names.add(row.name)) {
+                duplicates.add(row);
+            }
+        }
+
+        if (!duplicates.isEmpty() && progress.failOnDuplicate) {
+            for (FruitImportReader.Row row : duplicates) {
+                progress.fail(row.line, "Fruit " + row.name + " already exists.");
+            }
+            progress.stopped = true;
+            return;
+        }
+        progress.duplicates += duplicates.size();
+
+        if (names.isEmpty()) {
+            return;
+        }
+        try {
+            batch.insert(new ArrayList<>(names));
+            progress.inserted += names.size();
+        } catch (Exception e) {
+            // rolled back, most likely a name inserted concurrently; retry one by one to insert the rest
+            for (FruitImportReader.Row row : chunk) {
+                if (!names.remove(row.name)) {
+                    continue;
+                }
+                try {
+                    batch.insert(Collections.singletonList(row.name));
+                    progress.inserted++;
+                } catch (Exception ex) {
+                    progress.fail(row.line, ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String validate(String name) {
+        if (name == null || name.trim().length() == 0) {
+            return "The name is required!";
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            return "The name is longer than " + MAX_NAME_LENGTH + " characters.";
+        }
+        return null;
+    }
+
+    private static final class Progress {
+        private final long started = System.nanoTime();
+
+        private final boolean failOnDuplicate;
+
+        private final JsonArrayBuilder errors = JSON.createArrayBuilder();
+
+        private long rows;
+
+        private long inserted;
+
+        private long duplicates;
+
+        private long failed;
+
+        private boolean stopped;
+
+        Progress(boolean failOnDuplicate) {
+            this.failOnDuplicate = failOnDuplicate;
+        }
+
+        void fail(long line, String message) {
+            if (failed++ < MAX_REPORTED_ERRORS) {
+                errors.add(JSON.createObjectBuilder()
+                                   .add("line", line)
+                                   .add("error", message == null ? "Unknown error" : message));
+            }
+        }
+
+        double seconds() {
+            return (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+        }
+
+        long rowsPerSecond() {
+            double seconds = seconds();
+            return seconds > 0 ? Math.round(rows / seconds) : rows;
+        }
+    }
+}
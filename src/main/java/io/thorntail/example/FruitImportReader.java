@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads fruit names one line at a time from an NDJSON body, one {@code {"name": ...}} object per
+ * line, or from a CSV body whose header row has a {@code name} column. Other fields, such as the
+ * {@code id} and {@code version} of an export, are ignored. Quoted CSV fields may contain commas
+ * and doubled quotes but not line breaks.
+ */
+class FruitImportReader {
+    private static final JsonReaderFactory READERS = Json.createReaderFactory(null);
+
+    private final BufferedReader reader;
+
+    private final boolean csv;
+
+    private int nameColumn = -1;
+
+    private long line;
+
+    FruitImportReader(InputStream input, boolean csv) {
+        this.reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 65536);
+        this.csv = csv;
+    }
+
+    /**
+     * Reads the CSV header row, returning an error message when it has no {@code name} column.
+     * Does nothing for NDJSON.
+     */
+    String readHeader() throws IOException {
+        if (!csv) {
+            return null;
+        }
+        String text = nextLine();
+        List<String> header = text == null ? null : fields(text);
+        if (header != null) {
+            for (int i = 0; i < header.size(); i++) {
+                if ("name".equalsIgnoreCase(header.get(i).trim())) {
+                    nameColumn = i;
+                    return null;
+                }
+            }
+        }
+        return "The CSV header must have a name column.";
+    }
+
+    /**
+     * Returns the next row, or {@code null} at the end of the body.
+     */
+    Row next() throws IOException {
+        String text = nextLine();
+        if (text == null) {
+            return null;
+        }
+        if (!csv) {
+            return ndjson(text);
+        }
+
+        List<String> fields = fields(text);
+        if (fields == null) {
+            return new Row(line, null, "Unterminated quoted field.");
+        }
+        return new Row(line, fields.size() > nameColumn ? fields.get(nameColumn) : null, null);
+    }
+
+    private String nextLine() throws IOException {
+        String text;
+        do {
+            text = reader.readLine();
+            if (text == null) {
+                return null;
+            }
+            line++;
+        } while (text.trim().isEmpty());
+        return text;
+    }
+
+    private Row ndjson(String text) {
+        JsonObject object;
+        try (JsonReader json = READERS.createReader(new StringReader(text))) {
+            object = json.readObject();
+        } catch (JsonException | IllegalStateException e) {
+            return new Row(line, null, "Invalid JSON object.");
+        }
+        JsonValue name = object.get("name");
+        return new Row(line, name instanceof JsonString ? ((JsonString) name).getString() : null, null);
+    }
+
+    /**
+     * Splits one CSV line, or returns {@code null} when a quoted field is not closed on it.
+     */
+    private static List<String> fields(String text) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    static final class Row {
+        final long line;
+
+        final String name;
+
+        final String error;
+
+        Row(long line, String name, String error) {
+            this.line = line;
+            this.name = name;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * CDI event fired once per committed import chunk instead of a {@link FruitChange} per row, so a
+ * bulk load wakes each observer once per chunk. Imports only create fruits, so nothing cached for
+ * an existing id goes stale.
+ */
+public class FruitImported {
+    private final Map<Integer, String> created;
+
+    /**
+     * @param created names of the new fruits by id, in insert order
+     */
+    public FruitImported(Map<Integer, String> created) {
+        this.created = Collections.unmodifiableMap(created);
+    }
+
+    public Map<Integer, String> getCreated() {
+        return created;
+    }
+
+    @Override
+    public String toString() {
+        return "IMPORTED " + created.size();
+    }
+}
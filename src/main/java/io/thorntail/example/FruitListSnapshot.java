@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * The full fruit list, already encoded as JSON, gzip and deflate, so list reads cost about as much
+ * as a static file. Committed writes mark the snapshot stale. A stale snapshot is rebuilt by one
+ * background thread while readers keep getting the previous one, except readers that must see
+ * their own recent write: they wait for a rebuild, as does everyone once the previous snapshot is
+ * older than {@code fruits.snapshot.max-stale-seconds}.
+ * <p>
+ * Tables whose JSON exceeds {@code fruits.snapshot.max-bytes} are not snapshotted, and callers
+ * fall back to streaming them.
+ */
+@ApplicationScoped
+public class FruitListSnapshot {
+    private static final Logger LOG = Logger.getLogger(FruitListSnapshot.class.getName());
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Object rebuildLock = new Object();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+
+    @Resource(lookup = "java:/jboss/datasources/MyDS")
+    private DataSource dataSource;
+
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService")
+    private ManagedExecutorService rebuilds;
+
+    @Inject
+    private FruitQueryLog queries;
+
+    @Inject
+    @ConfigProperty(name = "fruits.stream.fetch-size", defaultValue = "500")
+    private int fetchSize;
+
+    @Inject
+    @ConfigProperty(name = "fruits.snapshot.max-bytes", defaultValue = "8388608")
+    private int maxBytes;
+
+    @Inject
+    @ConfigProperty(name = "fruits.snapshot.max-age-seconds", defaultValue = "10")
+    private long maxAgeSeconds;
+
+    @Inject
+    @ConfigProperty(name = "fruits.snapshot.max-stale-seconds", defaultValue = "60")
+    private long maxStaleSeconds;
+
+    /**
+     * Returns the snapshot, or {@code null} when the list is too large to keep in memory. With
+     * {@code upToDate} it includes every write committed here so far; otherwise it may be the
+     * previous one while a rebuild runs.
+     */
+    public Snapshot get(boolean upToDate) throws IOException {
+        Snapshot current = snapshot;
+        if (isFresh(current)) {
+            return current.json != null ? current : null;
+        }
+        if (!upToDate && current != null
+                && System.nanoTime() - current.createdAt < TimeUnit.SECONDS.toNanos(maxStaleSeconds)) {
+            rebuildInBackground();
+            return current.json != null ? current : null;
+        }
+
+        synchronized (rebuildLock) {
+            current = snapshot;
+            if (!isFresh(current)) {
+                current = build();
+                snapshot = current;
+            }
+        }
+        return current.json != null ? current : null;
+    }
+
+    void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) FruitChange change) {
+        generation.incrementAndGet();
+    }
+
+    void onImport(@Observes(during = TransactionPhase.AFTER_SUCCESS) FruitImported imported) {
+        generation.incrementAndGet();
+    }
+
+    private void rebuildInBackground() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            rebuilds.execute(() -> {
+                try {
+                    synchronized (rebuildLock) {
+                        if (!isFresh(snapshot)) {
+                            snapshot = build();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOG.log(Level.WARNING, "Rebuilding the fruit list snapshot failed, keeping the previous one", e);
+                } finally {
+                    rebuilding.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the next stale read tries again
+            rebuilding.set(false);
+        }
+    }
+
+    private boolean isFresh(Snapshot current) {
+        // max age bounds how long writes made on other replicas stay invisible here
+        return current != null
+                && current.generation == generation.get()
+                && System.nanoTime() - current.createdAt < TimeUnit.SECONDS.toNanos(maxAgeSeconds);
+    }
+
+    private Snapshot build() throws IOException {
+        long startGeneration = generation.get();
+        long createdAt = System.nanoTime();
+
+        BoundedOutputStream json = new BoundedOutputStream(maxBytes);
+        try {
+            new FruitStream(queries, dataSource, fetchSize).write(json);
+        } catch (LimitExceeded e) {
+            return new Snapshot(startGeneration, createdAt, null, null, null, null);
+        }
+
+        byte[] bytes = json.toByteArray();
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(bytes);
+        }
+        ByteArrayOutputStream deflate = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(deflate)) {
+            out.write(bytes);
+        }
+        return new Snapshot(startGeneration, createdAt, bytes, gzip.toByteArray(), deflate.toByteArray(), digest(bytes));
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static final class Snapshot {
+        private final long generation;
+
+        private final long createdAt;
+
+        private final byte[] json;
+
+        private final byte[] gzip;
+
+        private final byte[] deflate;
+
+        private final String digest;
+
+        Snapshot(long generation, long createdAt, byte[] json, byte[] gzip, byte[] deflate, String digest) {
+            this.generation = generation;
+            this.createdAt = createdAt;
+            this.json = json;
+            this.gzip = gzip;
+            this.deflate = deflate;
+            this.digest = digest;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        /**
+         * The zlib format that HTTP calls {@code deflate}.
+         */
+        public byte[] getDeflate() {
+            return deflate;
+        }
+
+        /**
+         * Content hash of the JSON encoding, usable as a strong entity tag for the list.
+         */
+        public String getDigest() {
+            return digest;
+        }
+    }
+
+    private static final class LimitExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LimitExceeded() {
+            super("Snapshot size limit exceeded", null, false, false);
+        }
+    }
+
+    private static final class BoundedOutputStream extends ByteArrayOutputStream {
+        private final int limit;
+
+        BoundedOutputStream(int limit) {
+            super(8192);
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            ensureCapacity(1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            super.write(b, off, len);
+        }
+
+        private void ensureCapacity(int len) {
+            if (count + len > limit) {
+                throw new LimitExceeded();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Liveness;
+
+/**
+ * Reports the pod dead only when {@link FruitExecutor} is stuck: work is queued, every thread is
+ * busy, and no task has finished for {@code fruits.liveness.stall-seconds}. A pod that is merely
+ * overloaded still makes progress and stays live; {@link FruitSaturation} takes it out of rotation
+ * instead of getting it restarted.
+ */
+@Liveness
+@ApplicationScoped
+public class FruitLiveness implements HealthCheck {
+    private long lastCompleted = -1;
+
+    private long lastProgress = System.nanoTime();
+
+    @Inject
+    private FruitExecutor executor;
+
+    @Inject
+    @ConfigProperty(name = "fruits.liveness.stall-seconds", defaultValue = "60")
+    private long stallSeconds;
+
+    @Override
+    public synchronized HealthCheckResponse call() {
+        long completed = executor.getCompleted();
+        boolean waiting = executor.getQueueDepth() > 0 && executor.getActive() >= executor.getThreads();
+        if (completed != lastCompleted || !waiting) {
+            lastCompleted = completed;
+            lastProgress = System.nanoTime();
+        }
+        long stalledSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - lastProgress);
+        return HealthCheckResponse.named("executor")
+                .state(stalledSeconds < stallSeconds)
+                .withData("completed", completed)
+                .withData("stalled-seconds", stalledSeconds)
+                .build();
+    }
+}
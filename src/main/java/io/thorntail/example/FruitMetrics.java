@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Application metrics that are not tied to a single request: Hibernate statistics, the point-read
+ * cache and the {@code MyDS} and {@code MyReadDS} pools, plus the per-status error counters. Everything is registered
+ * once so recording on the request path is a plain increment.
+ */
+@ApplicationScoped
+public class FruitMetrics {
+    private final AtomicReferenceArray<Counter> errors = new AtomicReferenceArray<>(200);
+
+    @Inject
+    private MetricRegistry registry;
+
+    @PersistenceUnit(unitName = "MyPU")
+    private EntityManagerFactory emf;
+
+    @Inject
+    private FruitCache cache;
+
+    @Inject
+    private DataSourcePool pool;
+
+    @Inject
+    private FruitExecutor executor;
+
+    @Inject
+    private FruitService fruits;
+
+    @Inject
+    private FruitChangeFeed feed;
+
+    @Inject
+    private FruitSearch search;
+
+    @Inject
+    private FruitReadRouting routing;
+
+    @Inject
+    private FruitWarmup warmup;
+
+    @Inject
+    private FruitGroupCommit groupCommit;
+
+    @Inject
+    private FruitSaturation saturation;
+
+    @Inject
+    private FruitAdmission admission;
+
+    void init(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        Statistics statistics = emf.unwrap(SessionFactory.class).getStatistics();
+        gauge("hibernate.queries", MetricUnits.NONE, statistics::getQueryExecutionCount);
+        gauge("hibernate.entity.loads", MetricUnits.NONE, statistics::getEntityLoadCount);
+        gauge("hibernate.flushes", MetricUnits.NONE, statistics::getFlushCount);
+        gauge("hibernate.statements.prepared", MetricUnits.NONE, statistics::getPrepareStatementCount);
+        gauge("hibernate.transactions", MetricUnits.NONE, statistics::getTransactionCount);
+
+        gauge("fruits.cache.hits", MetricUnits.NONE, cache::getHits);
+        gauge("fruits.cache.misses", MetricUnits.NONE, cache::getMisses);
+        gauge("fruits.cache.evictions", MetricUnits.NONE, cache::getEvictions);
+        gauge("fruits.cache.size", MetricUnits.NONE, cache::getSize);
+
+        for (String dataSource : DataSourcePool.DATA_SOURCES) {
+            Tag tag = new Tag("datasource", dataSource);
+            gauge("datasource.pool.active", MetricUnits.NONE, () -> pool.getActive(dataSource), tag);
+            gauge("datasource.pool.in-use", MetricUnits.NONE, () -> pool.getInUse(dataSource), tag);
+            gauge("datasource.pool.idle", MetricUnits.NONE, () -> pool.getIdle(dataSource), tag);
+            gauge("datasource.pool.waiting", MetricUnits.NONE, () -> pool.getWaiting(dataSource), tag);
+            gauge("datasource.pool.average-wait-time", MetricUnits.MILLISECONDS, () -> pool.getAverageBlockingTimeMillis(dataSource), tag);
+            gauge("datasource.pool.max-wait-time", MetricUnits.MILLISECONDS, () -> pool.getMaxWaitTimeMillis(dataSource), tag);
+        }
+
+        gauge("fruits.executor.active", MetricUnits.NONE, executor::getActive);
+        gauge("fruits.executor.queue-depth", MetricUnits.NONE, executor::getQueueDepth);
+        gauge("fruits.executor.rejected", MetricUnits.NONE, executor::getRejected);
+        gauge("fruits.executor.timeouts", MetricUnits.NONE, executor::getTimeouts);
+        gauge("fruits.executor.p99", MetricUnits.MILLISECONDS, () -> Math.round(executor.getP99Millis()));
+        gauge("fruits.saturated", MetricUnits.NONE, () -> saturation.isOverloaded() ? 1 : 0);
+        gauge("fruits.rate-limit.rejected", MetricUnits.NONE, admission::getReadRejections, new Tag("bucket", "read"));
+        gauge("fruits.rate-limit.rejected", MetricUnits.NONE, admission::getWriteRejections, new Tag("bucket", "write"));
+        gauge("fruits.group-commit.queue-depth", MetricUnits.NONE, groupCommit::getQueueDepth);
+
+        gauge("fruits.reads.loads", MetricUnits.NONE, fruits::getSingleReadLoads, new Tag("query", "single"));
+        gauge("fruits.reads.coalesced", MetricUnits.NONE, fruits::getCoalescedSingleReads, new Tag("query", "single"));
+        gauge("fruits.reads.loads", MetricUnits.NONE, fruits::getPageReadLoads, new Tag("query", "page"));
+        gauge("fruits.reads.coalesced", MetricUnits.NONE, fruits::getCoalescedPageReads, new Tag("query", "page"));
+        gauge("fruits.reads.routed", MetricUnits.NONE, routing::getReplicaReads, new Tag("source", "replica"));
+        gauge("fruits.reads.routed", MetricUnits.NONE, routing::getPrimaryReads, new Tag("source", "primary"));
+        gauge("fruits.reads.replica-fallbacks", MetricUnits.NONE, routing::getFallbacks);
+
+        gauge("fruits.changes.subscribers", MetricUnits.NONE, feed::getSubscribers);
+        gauge("fruits.changes.dropped", MetricUnits.NONE, feed::getDropped);
+
+        gauge("fruits.search.indexed", MetricUnits.NONE, search::getSize);
+
+        for (String phase : FruitWarmup.PHASES) {
+            gauge("fruits.warmup.duration", MetricUnits.MILLISECONDS, () -> warmup.getDuration(phase), new Tag("phase", phase));
+        }
+
+        for (int code : new int[]{404, 412, 413, 415, 422, 429, 500, 503}) {
+            error(code);
+        }
+    }
+
+    /**
+     * Counter of responses with the given 4xx/5xx status.
+     */
+    public Counter error(int status) {
+        int index = status - 400;
+        if (index < 0 || index >= errors.length()) {
+            throw new IllegalArgumentException("Not an error status: " + status);
+        }
+        Counter counter = errors.get(index);
+        if (counter == null) {
+            // registering the same id twice returns the existing counter, so a race is harmless
+            counter = registry.counter("fruits.errors", new Tag("code", String.valueOf(status)));
+            errors.set(index, counter);
+        }
+        return counter;
+    }
+
+    private void gauge(String name, String unit, LongSupplier value, Tag... tags) {
+        registry.register(Metadata.builder()
+                                  .withName(name)
+                                  .withType(MetricType.GAUGE)
+                                  .withUnit(unit)
+                                  .build(),
+                          (Gauge<Long>) value::getAsLong,
+                          tags);
+    }
+}
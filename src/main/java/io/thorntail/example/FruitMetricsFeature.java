@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.ext.Provider;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.servlet.handlers.ServletRequestContext;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+
+/**
+ * Times every {@link FruitResource} method with its own pre-registered timer, and counts error
+ * responses by status. The time runs from when Undertow received the request, which it records
+ * on the exchange as a primitive ({@code record-request-start-time} in project-defaults.yml), so
+ * timing a request allocates nothing.
+ */
+@Provider
+@ApplicationScoped
+public class FruitMetricsFeature implements DynamicFeature {
+    @Inject
+    private MetricRegistry registry;
+
+    @Inject
+    private FruitMetrics metrics;
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        if (resourceInfo.getResourceClass() != FruitResource.class) {
+            return;
+        }
+        Timer timer = registry.timer("fruits.requests", new Tag("method", resourceInfo.getResourceMethod().getName()));
+        context.register(new TimingFilter(timer, metrics));
+    }
+
+    private static final class TimingFilter implements ContainerRequestFilter, ContainerResponseFilter {
+        private static final String EXCHANGE = TimingFilter.class.getName() + ".exchange";
+
+        private final Timer timer;
+
+        private final FruitMetrics metrics;
+
+        TimingFilter(Timer timer, FruitMetrics metrics) {
+            this.timer = timer;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void filter(ContainerRequestContext request) {
+            // the response filter may run on another thread, after an asynchronous resume
+            ServletRequestContext servlet = ServletRequestContext.current();
+            if (servlet != null) {
+                request.setProperty(EXCHANGE, servlet.getExchange());
+            }
+        }
+
+        @Override
+        public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+            HttpServerExchange exchange = (HttpServerExchange) request.getProperty(EXCHANGE);
+            long start = exchange != null ? exchange.getRequestStartTime() : -1;
+            if (start != -1) {
+                timer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            int status = response.getStatus();
+            if (status >= 400 && status < 600) {
+                metrics.error(status).inc();
+            }
+        }
+    }
+}
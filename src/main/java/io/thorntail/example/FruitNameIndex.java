@@ -0,0 +1,418 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory index of fruit names for prefix and substring search.
+ * <p>
+ * Prefixes are answered from a skip list of lower-cased names. Substrings of three or more
+ * characters are answered by intersecting the posting lists of their trigrams and checking the few
+ * candidates left, at most {@link #MAX_CANDIDATES} of them, lowest ids first; shorter queries only
+ * match prefixes. Posting lists are immutable blocks of
+ * sorted ids, so searches never lock and a write only copies the block it changes.
+ */
+class FruitNameIndex {
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * Bounds the work of very common substrings: only this many candidates are checked and ranked.
+     */
+    private static final int MAX_CANDIDATES = 200;
+
+    private static final Comparator<Match> RANKING = Comparator.<Match>comparingInt(match -> match.rank)
+            .thenComparingInt(match -> match.entry.lower.length())
+            .thenComparing(match -> match.entry.lower)
+            .thenComparingInt(match -> match.entry.id);
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListMap<String, Entry> byName = new ConcurrentSkipListMap<>();
+
+    private final Map<Long, Postings> trigrams = new ConcurrentHashMap<>();
+
+    /**
+     * Adds or renames a fruit. Writes are serialized, searches never wait for them.
+     */
+    synchronized void put(int id, String name) {
+        remove(id);
+        if (name == null) {
+            return;
+        }
+        Entry entry = new Entry(id, name);
+        entries.put(id, entry);
+        byName.put(entry.key(), entry);
+        for (long trigram : trigrams(entry.lower)) {
+            trigrams.compute(trigram, (key, ids) -> ids == null ? Postings.of(new int[]{id}, 1) : ids.with(id));
+        }
+    }
+
+    synchronized void remove(int id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        byName.remove(entry.key());
+        for (long trigram : trigrams(entry.lower)) {
+            trigrams.computeIfPresent(trigram, (key, ids) -> ids.without(id));
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Up to {@code limit} fruits matching {@code query}: an exact match first, then names starting
+     * with it in alphabetical order, then names with a word starting with it and finally names
+     * containing it, each shortest first.
+     */
+    List<Entry> search(String query, int limit) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        List<Entry> result = new ArrayList<>(Math.min(limit, 64));
+        if (q.isEmpty() || limit <= 0) {
+            return result;
+        }
+
+        // names sort before their extensions, so the skip list yields the exact match first
+        ConcurrentNavigableMap<String, Entry> prefixed = byName.subMap(q, true, q + Character.MAX_VALUE, true);
+        for (Entry entry : prefixed.values()) {
+            if (result.size() == limit) {
+                return result;
+            }
+            result.add(entry);
+        }
+        if (q.length() < 3) {
+            return result;
+        }
+
+        // keeps the best remaining matches only, with the worst of them on top
+        int wanted = limit - result.size();
+        PriorityQueue<Match> best = new PriorityQueue<>(wanted + 1, RANKING.reversed());
+        for (int id : candidates(q)) {
+            Entry entry = entries.get(id);
+            if (entry == null || entry.lower.startsWith(q)) {
+                continue;
+            }
+            int at = entry.lower.indexOf(q);
+            if (at > 0) {
+                Match match = new Match(entry, Character.isLetterOrDigit(entry.lower.charAt(at - 1)) ? 1 : 0);
+                if (best.size() < wanted) {
+                    best.add(match);
+                } else if (RANKING.compare(match, best.peek()) < 0) {
+                    best.poll();
+                    best.add(match);
+                }
+            }
+        }
+        Match[] matches = best.toArray(new Match[0]);
+        Arrays.sort(matches, RANKING);
+        for (Match match : matches) {
+            result.add(match.entry);
+        }
+        return result;
+    }
+
+    /**
+     * Ids whose names contain every trigram of {@code q}, from the rarest list filtered by the
+     * others, up to {@link #MAX_CANDIDATES} of them.
+     */
+    private int[] candidates(String q) {
+        long[] grams = trigrams(q);
+        Postings[] lists = new Postings[grams.length];
+        for (int i = 0; i < grams.length; i++) {
+            lists[i] = trigrams.get(grams[i]);
+            if (lists[i] == null) {
+                return new int[0];
+            }
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+
+        // the ids arrive in ascending order, so the other lists are merged with forward-only cursors
+        Cursor[] others = new Cursor[lists.length - 1];
+        for (int i = 1; i < lists.length; i++) {
+            others[i - 1] = new Cursor(lists[i]);
+        }
+        int[] result = new int[Math.min(lists[0].size, MAX_CANDIDATES)];
+        int count = 0;
+        for (int[] block : lists[0].blocks) {
+            next:
+            for (int id : block) {
+                for (Cursor other : others) {
+                    int found = other.advanceTo(id);
+                    if (found < 0) {
+                        return Arrays.copyOf(result, count);
+                    }
+                    if (found != id) {
+                        continue next;
+                    }
+                }
+                result[count++] = id;
+                if (count == result.length) {
+                    return result;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static long[] trigrams(String lower) {
+        if (lower.length() < 3) {
+            return new long[0];
+        }
+        long[] grams = new long[lower.length() - 2];
+        int count = 0;
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            long gram = (long) lower.charAt(i) << 32 | (long) lower.charAt(i + 1) << 16 | lower.charAt(i + 2);
+            // a name repeating a trigram is listed once
+            boolean seen = false;
+            for (int j = 0; j < count && !seen; j++) {
+                seen = grams[j] == gram;
+            }
+            if (!seen) {
+                grams[count++] = gram;
+            }
+        }
+        return count == grams.length ? grams : Arrays.copyOf(grams, count);
+    }
+
+    /**
+     * Loads many names at once, sorting each posting list once instead of inserting id by id.
+     */
+    static final class Builder {
+        private final FruitNameIndex index = new FruitNameIndex();
+
+        private final Map<Long, Ids> postings = new HashMap<>();
+
+        void add(int id, String name) {
+            if (name == null) {
+                return;
+            }
+            Entry entry = new Entry(id, name);
+            index.entries.put(id, entry);
+            index.byName.put(entry.key(), entry);
+            for (long trigram : trigrams(entry.lower)) {
+                postings.computeIfAbsent(trigram, key -> new Ids()).add(id);
+            }
+        }
+
+        FruitNameIndex build() {
+            for (Map.Entry<Long, Ids> posting : postings.entrySet()) {
+                Ids ids = posting.getValue();
+                Arrays.sort(ids.ids, 0, ids.size);
+                index.trigrams.put(posting.getKey(), Postings.of(ids.ids, ids.size));
+            }
+            postings.clear();
+            return index;
+        }
+
+        private static final class Ids {
+            private int[] ids = new int[4];
+
+            private int size;
+
+            void add(int id) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                }
+                ids[size++] = id;
+            }
+        }
+    }
+
+    /**
+     * Sorted ids in blocks of at most {@link #BLOCK} entries. Instances never change; writes return
+     * a copy sharing every block but the one that changed.
+     */
+    private static final class Postings {
+        private static final int BLOCK = 512;
+
+        private final int[][] blocks;
+
+        private final int size;
+
+        private Postings(int[][] blocks, int size) {
+            this.blocks = blocks;
+            this.size = size;
+        }
+
+        static Postings of(int[] sorted, int size) {
+            int[][] blocks = new int[(size + BLOCK - 1) / BLOCK][];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = Arrays.copyOfRange(sorted, i * BLOCK, Math.min(size, (i + 1) * BLOCK));
+            }
+            return new Postings(blocks, size);
+        }
+
+        boolean contains(int id) {
+            int block = blockOf(id);
+            return block >= 0 && Arrays.binarySearch(blocks[block], id) >= 0;
+        }
+
+        Postings with(int id) {
+            int block = Math.max(blockOf(id), 0);
+            int[] ids = blocks[block];
+            int at = Arrays.binarySearch(ids, id);
+            if (at >= 0) {
+                return this;
+            }
+            at = -at - 1;
+            int[] grown = new int[ids.length + 1];
+            System.arraycopy(ids, 0, grown, 0, at);
+            grown[at] = id;
+            System.arraycopy(ids, at, grown, at + 1, ids.length - at);
+
+            if (grown.length <= 2 * BLOCK) {
+                int[][] copy = blocks.clone();
+                copy[block] = grown;
+                return new Postings(copy, size + 1);
+            }
+            int[][] split = new int[blocks.length + 1][];
+            System.arraycopy(blocks, 0, split, 0, block);
+            split[block] = Arrays.copyOfRange(grown, 0, BLOCK);
+            split[block + 1] = Arrays.copyOfRange(grown, BLOCK, grown.length);
+            System.arraycopy(blocks, block + 1, split, block + 2, blocks.length - block - 1);
+            return new Postings(split, size + 1);
+        }
+
+        /**
+         * Returns {@code null} once the last id is gone, which drops the trigram from the index.
+         */
+        Postings without(int id) {
+            int block = blockOf(id);
+            int at = block < 0 ? -1 : Arrays.binarySearch(blocks[block], id);
+            if (at < 0) {
+                return this;
+            }
+            if (size == 1) {
+                return null;
+            }
+            int[] ids = blocks[block];
+            if (ids.length == 1) {
+                int[][] copy = new int[blocks.length - 1][];
+                System.arraycopy(blocks, 0, copy, 0, block);
+                System.arraycopy(blocks, block + 1, copy, block, blocks.length - block - 1);
+                return new Postings(copy, size - 1);
+            }
+            int[] shrunk = new int[ids.length - 1];
+            System.arraycopy(ids, 0, shrunk, 0, at);
+            System.arraycopy(ids, at + 1, shrunk, at, ids.length - at - 1);
+            int[][] copy = blocks.clone();
+            copy[block] = shrunk;
+            return new Postings(copy, size - 1);
+        }
+
+        /**
+         * Index of the last block starting at or before {@code id}, or -1 if {@code id} precedes them all.
+         */
+        private int blockOf(int id) {
+            int low = 0;
+            int high = blocks.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (blocks[mid][0] <= id) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+    }
+
+    private static final class Cursor {
+        private final int[][] blocks;
+
+        private int block;
+
+        private int at;
+
+        Cursor(Postings postings) {
+            this.blocks = postings.blocks;
+        }
+
+        /**
+         * Moves to the first id not below {@code id} and returns it, or -1 once past the last one.
+         */
+        int advanceTo(int id) {
+            if (block == blocks.length) {
+                return -1;
+            }
+            if (blocks[block][blocks[block].length - 1] < id) {
+                // first block ending at or after id, searching only ahead of the current one
+                int low = block + 1;
+                int high = blocks.length;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (blocks[mid][blocks[mid].length - 1] < id) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                block = low;
+                at = 0;
+                if (block == blocks.length) {
+                    return -1;
+                }
+            }
+            int[] ids = blocks[block];
+            int found = Arrays.binarySearch(ids, at, ids.length, id);
+            at = found >= 0 ? found : -found - 1;
+            return ids[at];
+        }
+    }
+
+    static final class Entry {
+        final int id;
+
+        final String name;
+
+        final String lower;
+
+        Entry(int id, String name) {
+            this.id = id;
+            this.name = name;
+            this.lower = name.toLowerCase(Locale.ROOT);
+        }
+
+        String key() {
+            return lower + SEPARATOR + id;
+        }
+    }
+
+    private static final class Match {
+        private final Entry entry;
+
+        private final int rank;
+
+        Match(Entry entry, int rank) {
+            this.entry = entry;
+            this.rank = rank;
+        }
+    }
+}
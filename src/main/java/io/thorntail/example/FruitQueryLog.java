@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Reports connection waits and statements to the {@link RequestTiming} bound to the thread, and
+ * logs every statement slower than {@code fruits.timing.slow-query-ms}, sampled or not, with its
+ * SQL and parameter count, never the values. Hibernate statements reach it through
+ * {@link FruitStatementInspector} and {@link FruitSessionTiming}; the raw JDBC of
+ * {@link FruitStream} and {@link FruitSearch} calls it directly.
+ */
+@ApplicationScoped
+public class FruitQueryLog {
+    static final String SLOW_QUERY_MS = "fruits.timing.slow-query-ms";
+
+    static final String DEFAULT_SLOW_QUERY_MS = "100";
+
+    private static final Logger LOG = Logger.getLogger(FruitQueryLog.class.getName());
+
+    @Inject
+    @ConfigProperty(name = SLOW_QUERY_MS, defaultValue = DEFAULT_SLOW_QUERY_MS)
+    private long slowQueryMillis;
+
+    FruitQueryLog() {
+    }
+
+    /**
+     * For Hibernate's side, which is created outside CDI.
+     */
+    FruitQueryLog(long slowQueryMillis) {
+        this.slowQueryMillis = slowQueryMillis;
+    }
+
+    /**
+     * A connection from {@code dataSource}, with the wait counted as pool time.
+     */
+    Connection connect(DataSource dataSource) throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return dataSource.getConnection();
+        } finally {
+            connected(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Runs the query, timing its execution. Reading the rows is up to the caller and not included.
+     */
+    ResultSet executeQuery(PreparedStatement statement, String sql) throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return statement.executeQuery();
+        } finally {
+            executed(sql, System.nanoTime() - started, false);
+        }
+    }
+
+    void connected(long nanos) {
+        RequestTiming timing = RequestTiming.current();
+        if (timing != null) {
+            timing.addPool(nanos);
+        }
+    }
+
+    void executed(String sql, long nanos, boolean batch) {
+        RequestTiming timing = RequestTiming.current();
+        if (timing != null) {
+            timing.addStatement(nanos);
+        }
+        if (nanos >= TimeUnit.MILLISECONDS.toNanos(slowQueryMillis)) {
+            LOG.warning(() -> slowQuery(sql, nanos, batch, timing));
+        }
+    }
+
+    private static String slowQuery(String sql, long nanos, boolean batch, RequestTiming timing) {
+        StringBuilder line = RequestTiming.millis(new StringBuilder("slow-query ms="), nanos)
+                .append(" batch=").append(batch)
+                .append(" parameters=").append(parameters(sql));
+        if (timing != null) {
+            line.append(" method=").append(timing.method).append(" path=").append(timing.path);
+        }
+        return line.append(" sql=\"").append(sql).append('"').toString();
+    }
+
+    /**
+     * Bind parameters in the statement. With padded IN lists this also tells the multi-get sizes apart.
+     */
+    static int parameters(String sql) {
+        if (sql == null) {
+            return 0;
+        }
+        int count = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == '?' && !quoted) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.persistence.PersistenceException;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Decides whether a read may go to the {@code MyReadDS} replica.
+ * <p>
+ * Successful writes hand out a write token, as a {@value #TOKEN_HEADER} header and a cookie that
+ * lives as long as the replica may lag behind. Reads presenting a token younger than
+ * {@code fruits.replica.max-lag-ms} go to the primary, so a client always reads its own writes.
+ * <p>
+ * The token is the wall-clock time of the pod that took the write, and the pod serving the read
+ * compares it with its own clock. This assumes the pods' clocks agree to well within
+ * {@code max-lag-ms}, as NTP keeps them. A reading pod whose clock runs ahead by some amount sends
+ * reads to the replica that much early. One running behind only keeps them on the primary longer.
+ * The primary's WAL position would not depend on clocks, but comparing it takes a query on both
+ * databases per routed read, and H2 has no such position.
+ * <p>
+ * A failing replica is skipped for {@code fruits.replica.retry-after-ms}, its reads retried on
+ * the primary.
+ */
+@ApplicationScoped
+public class FruitReadRouting {
+    static final String TOKEN_HEADER = "Fruits-Write-Token";
+
+    static final String TOKEN_COOKIE = "fruits-write-token";
+
+    private final AtomicLong lastLocalWrite = new AtomicLong();
+
+    private final AtomicLong replicaDownUntil = new AtomicLong();
+
+    private final LongAdder replicaReads = new LongAdder();
+
+    private final LongAdder primaryReads = new LongAdder();
+
+    private final LongAdder fallbacks = new LongAdder();
+
+    @Inject
+    @ConfigProperty(name = "fruits.replica.enabled", defaultValue = "true")
+    private boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "fruits.replica.max-lag-ms", defaultValue = "5000")
+    private long maxLagMillis;
+
+    @Inject
+    @ConfigProperty(name = "fruits.replica.retry-after-ms", defaultValue = "10000")
+    private long retryAfterMillis;
+
+    /**
+     * Whether a read carrying {@code token}, the write token from the request if any, may use the replica.
+     */
+    public boolean useReplica(String token) {
+        if (!enabled || System.currentTimeMillis() < replicaDownUntil.get()) {
+            return false;
+        }
+        return !isRecentWrite(token);
+    }
+
+    /**
+     * Whether {@code token}, the write token from the request if any, is young enough that the
+     * caller's write may not be visible everywhere yet. Measured against this pod's clock.
+     */
+    public boolean isRecentWrite(String token) {
+        if (token == null) {
+            return false;
+        }
+        try {
+            return System.currentTimeMillis() - Long.parseLong(token.trim()) < maxLagMillis;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether replica results may go into the local caches: only once every local write is old
+     * enough to have reached the replica, or a cache would keep a value that write replaced.
+     */
+    public boolean isSettled() {
+        return System.currentTimeMillis() - lastLocalWrite.get() >= maxLagMillis;
+    }
+
+    /**
+     * Runs {@code onReplica} when {@code replica} is set, falling back to {@code onPrimary} if it fails.
+     */
+    public <T> T read(boolean replica, Supplier<T> onReplica, Supplier<T> onPrimary) {
+        if (replica) {
+            try {
+                T result = onReplica.get();
+                replicaReads.increment();
+                return result;
+            } catch (PersistenceException e) {
+                replicaFailed();
+            }
+        }
+        primaryReads.increment();
+        return onPrimary.get();
+    }
+
+    /**
+     * Keeps reads off the replica for a while and counts the fallback to the primary.
+     */
+    public void replicaFailed() {
+        fallbacks.increment();
+        replicaDownUntil.set(System.currentTimeMillis() + retryAfterMillis);
+    }
+
+    /**
+     * Adds a fresh write token, this pod's current time, to a successful write response.
+     */
+    public Response markWrite(Response response) {
+        if (response.getStatus() >= 300) {
+            return response;
+        }
+        String token = String.valueOf(System.currentTimeMillis());
+        int maxAge = (int) TimeUnit.MILLISECONDS.toSeconds(maxLagMillis + 999);
+        return Response.fromResponse(response)
+                .header(TOKEN_HEADER, token)
+                .cookie(new NewCookie(TOKEN_COOKIE, token, "/api", null, null, maxAge, false, true))
+                .build();
+    }
+
+    public long getReplicaReads() {
+        return replicaReads.sum();
+    }
+
+    public long getPrimaryReads() {
+        return primaryReads.sum();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) FruitChange change) {
+        lastLocalWrite.set(System.currentTimeMillis());
+    }
+
+    void onImport(@Observes(during = TransactionPhase.AFTER_SUCCESS) FruitImported imported) {
+        lastLocalWrite.set(System.currentTimeMillis());
+    }
+}
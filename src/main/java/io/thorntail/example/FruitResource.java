@@ -16,120 +16,274 @@
 package io.thorntail.example;
 
 import javax.enterprise.context.ApplicationScoped;
-import javax.json.Json;
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
-import javax.transaction.Transactional;
+import javax.inject.Inject;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.json.spi.JsonProvider;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.CookieParam;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.io.InputStream;
+import java.util.List;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Suspends every request that touches the database and runs it on {@link FruitExecutor}, so HTTP
+ * worker threads never block on it. The change feed is served from memory by {@link FruitChangeFeed}.
+ */
 @Path("/fruits")
 @ApplicationScoped
 public class FruitResource {
-    @PersistenceContext(unitName = "MyPU")
-    private EntityManager em;
+    private static final JsonProvider JSON = JsonProvider.provider();
+
+    private static final String LAST_EVENT_ID = "Last-Event-ID";
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    private static final String CSV = "text/csv";
+
+    @Inject
+    private FruitService fruits;
+
+    @Inject
+    private FruitExecutor executor;
+
+    @Inject
+    private FruitChangeFeed feed;
+
+    @Inject
+    private FruitImport imports;
+
+    @Inject
+    private FruitSearch search;
+
+    @Inject
+    private FruitReadRouting routing;
+
+    @Inject
+    private FruitGroupCommit groupCommit;
+
+    @Inject
+    @ConfigProperty(name = "fruits.search.default-limit", defaultValue = "20")
+    private int searchDefaultLimit;
+
+    @Inject
+    @ConfigProperty(name = "fruits.search.max-limit", defaultValue = "100")
+    private int searchMaxLimit;
+
+    @Inject
+    @ConfigProperty(name = "fruits.timeout.read-ms", defaultValue = "5000")
+    private long readTimeout;
+
+    @Inject
+    @ConfigProperty(name = "fruits.timeout.write-ms", defaultValue = "10000")
+    private long writeTimeout;
+
+    @Inject
+    @ConfigProperty(name = "fruits.timeout.batch-ms", defaultValue = "60000")
+    private long batchTimeout;
+
+    @Inject
+    @ConfigProperty(name = "fruits.timeout.import-ms", defaultValue = "3600000")
+    private long importTimeout;
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
-    public Fruit[] get() {
-        return em.createNamedQuery("Fruits.findAll", Fruit.class)
-                .getResultList()
-                .toArray(new Fruit[0]);
+    @Produces({MediaType.APPLICATION_JSON, FruitCbor.MEDIA_TYPE})
+    public void get(@QueryParam("after") Integer after, @QueryParam("limit") Integer limit,
+                    @QueryParam("ids") String ids,
+                    @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+                    @HeaderParam(FruitReadRouting.TOKEN_HEADER) String tokenHeader,
+                    @CookieParam(FruitReadRouting.TOKEN_COOKIE) String tokenCookie,
+                    @Context UriInfo uriInfo, @Context Request request, @Suspended AsyncResponse response) {
+        String token = writeToken(tokenHeader, tokenCookie);
+        executor.submit(response, readTimeout, () -> fruits.get(after, limit, ids, acceptEncoding, uriInfo, request, token));
     }
 
     @GET
     @Path("/{id}")
-    @Produces(MediaType.APPLICATION_JSON)
-    public Fruit getSingle(@PathParam("id") Integer id) {
-        return em.find(Fruit.class, id);
+    @Produces({MediaType.APPLICATION_JSON, FruitCbor.MEDIA_TYPE})
+    public void getSingle(@PathParam("id") Integer id,
+                          @HeaderParam(FruitReadRouting.TOKEN_HEADER) String tokenHeader,
+                          @CookieParam(FruitReadRouting.TOKEN_COOKIE) String tokenCookie,
+                          @Context Request request, @Suspended AsyncResponse response) {
+        String token = writeToken(tokenHeader, tokenCookie);
+        executor.submit(response, readTimeout, () -> fruits.getSingle(id, request, token));
     }
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    @Transactional
-    public Response create(Fruit fruit) {
-        if (fruit == null) {
-            return error(415, "Invalid payload!");
+    public void create(Fruit fruit, @Suspended AsyncResponse response) {
+        if (groupCommit.isEnabled()) {
+            executor.resume(response, writeTimeout, fruits.createGrouped(fruit).thenApply(routing::markWrite));
+            return;
         }
+        executor.submit(response, writeTimeout, () -> routing.markWrite(fruits.create(fruit)));
+    }
 
-        if (fruit.getName() == null || fruit.getName().trim().length() == 0) {
-            return error(422, "The name is required!");
+    @PUT
+    @Path("/{id}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void update(@PathParam("id") Integer id, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch, Fruit fruit,
+                       @Suspended AsyncResponse response) {
+        // conditional updates need the version check of the direct path
+        if (groupCommit.isEnabled() && ifMatch == null) {
+            executor.resume(response, writeTimeout, fruits.updateGrouped(id, fruit).thenApply(routing::markWrite));
+            return;
         }
+        executor.submit(response, writeTimeout, () -> routing.markWrite(fruits.update(id, ifMatch, fruit)));
+    }
+
+    @POST
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void batch(JsonArray operations, @Suspended AsyncResponse response) {
+        executor.submit(response, batchTimeout, () -> routing.markWrite(fruits.batch(operations)));
+    }
 
-        if (fruit.getId() != null) {
-            return error(422, "Id was invalidly set on request.");
+    @GET
+    @Path("/search")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response search(@QueryParam("q") String query, @QueryParam("limit") Integer limit) {
+        if (query == null || query.trim().isEmpty()) {
+            return FruitService.error(422, "The q parameter is required.");
+        }
+        int size = limit != null ? limit : searchDefaultLimit;
+        if (size < 1 || size > searchMaxLimit) {
+            return FruitService.error(422, "The limit must be between 1 and " + searchMaxLimit + ".");
         }
 
-        try {
-            em.persist(fruit);
-        } catch (Exception e) {
-            return error(500, e.getMessage());
+        // answered from memory on the request thread, there is nothing to wait for
+        JsonArrayBuilder fruits = JSON.createArrayBuilder();
+        for (FruitNameIndex.Entry entry : search.search(query, size)) {
+            fruits.add(JSON.createObjectBuilder()
+                               .add("id", entry.id)
+                               .add("name", entry.name));
         }
-        return Response.ok(fruit).status(201).build();
+        return Response.ok(fruits.build()).build();
     }
 
-    @PUT
-    @Path("/{id}")
-    @Consumes(MediaType.APPLICATION_JSON)
+    @POST
+    @Path("/import")
+    @Consumes({NDJSON, CSV})
     @Produces(MediaType.APPLICATION_JSON)
-    @Transactional
-    public Response update(@PathParam("id") Integer id, Fruit fruit) {
-        if (fruit == null) {
-            return error(415, "Invalid payload!");
-        }
+    public void importFruits(@QueryParam("onDuplicate") @DefaultValue("skip") String onDuplicate,
+                             @Context HttpHeaders headers, InputStream body, @Suspended AsyncResponse response) {
+        boolean csv = headers.getMediaType().isCompatible(FruitStream.CSV);
+        executor.submitImport(response, importTimeout, () -> routing.markWrite(imports.run(body, csv, onDuplicate)));
+    }
 
-        if (fruit.getName() == null || fruit.getName().trim().length() == 0) {
-            return error(422, "The name is required!");
-        }
+    @GET
+    @Path("/export")
+    @Produces(NDJSON)
+    public void exportNdjson(@HeaderParam(FruitReadRouting.TOKEN_HEADER) String tokenHeader,
+                             @CookieParam(FruitReadRouting.TOKEN_COOKIE) String tokenCookie,
+                             @Suspended AsyncResponse response) {
+        String token = writeToken(tokenHeader, tokenCookie);
+        executor.submit(response, readTimeout, () -> fruits.export(FruitStream.Format.NDJSON, token));
+    }
 
-        try {
-            Fruit entity = em.find(Fruit.class, id);
+    @GET
+    @Path("/export")
+    @Produces(CSV)
+    public void exportCsv(@HeaderParam(FruitReadRouting.TOKEN_HEADER) String tokenHeader,
+                          @CookieParam(FruitReadRouting.TOKEN_COOKIE) String tokenCookie,
+                          @Suspended AsyncResponse response) {
+        String token = writeToken(tokenHeader, tokenCookie);
+        executor.submit(response, readTimeout, () -> fruits.export(FruitStream.Format.CSV, token));
+    }
 
-            if (entity == null) {
-                return error(404, "Fruit with id of " + id + " does not exist.");
-            }
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void changes(@QueryParam("since") String since, @HeaderParam(LAST_EVENT_ID) String lastEventId,
+                        @Context SseEventSink sink, @Context Sse sse) {
+        // a reconnecting EventSource sends the id of the last event it saw, which is newer than its URL
+        Long token = tokenOf(lastEventId != null ? lastEventId : since);
+        feed.subscribe(sink, sse, token != null ? token : feed.latest());
+    }
 
-            entity.setName(fruit.getName());
-            em.merge(entity);
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response changesSince(@QueryParam("since") String since) {
+        long latest = feed.latest();
+        if (since == null) {
+            return Response.ok(JSON.createObjectBuilder()
+                                       .add("token", latest)
+                                       .add("changes", JsonValue.EMPTY_JSON_ARRAY)
+                                       .build())
+                    .build();
+        }
 
-            return Response.ok(entity).status(200).build();
-        } catch (Exception e) {
-            return error(500, e.getMessage());
+        Long token = tokenOf(since);
+        if (token == null) {
+            return FruitService.error(422, "Invalid token " + since + ".");
+        }
+        List<JsonObject> changes = feed.since(token);
+        if (changes == null) {
+            return FruitService.error(410, "Changes after " + token + " are no longer available, reload the list.");
         }
-    }
 
+        // the token to pass next time: the last change returned, never ahead of what was read
+        long next = changes.isEmpty() ? Math.min(token, latest) : changes.get(changes.size() - 1).getJsonNumber("token").longValue();
+        JsonArrayBuilder array = JSON.createArrayBuilder();
+        changes.forEach(array::add);
+        return Response.ok(JSON.createObjectBuilder()
+                                   .add("token", next)
+                                   .add("changes", array)
+                                   .build())
+                .build();
+    }
 
     @DELETE
     @Path("/{id}")
     @Consumes(MediaType.TEXT_PLAIN)
-    @Transactional
-    public Response delete(@PathParam("id") Integer id) {
-        try {
-            Fruit entity = em.find(Fruit.class, id);
-            em.remove(entity);
-        } catch (Exception e) {
-            return error(500, e.getMessage());
-        }
-        return Response.status(204).build();
+    public void delete(@PathParam("id") Integer id, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+                       @Suspended AsyncResponse response) {
+        executor.submit(response, writeTimeout, () -> routing.markWrite(fruits.delete(id, ifMatch)));
     }
 
-    private Response error(int code, String message) {
-        return Response
-                .status(code)
-                .entity(Json.createObjectBuilder()
-                            .add("error", message)
-                            .add("code", code)
-                            .build()
-                )
-                .build();
+    /**
+     * Clients that manage headers themselves send the write token back as a header, browsers as the cookie.
+     */
+    private static String writeToken(String header, String cookie) {
+        return header != null ? header : cookie;
+    }
+
+    private static Long tokenOf(String token) {
+        if (token == null || token.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            long value = Long.parseLong(token.trim());
+            return value < 0 ? null : value;
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+
+/**
+ * Reports the pod not ready while it is over its service level, so the load balancer sends
+ * traffic elsewhere before requests start timing out. The signals are:
+ * <ul>
+ * <li>the share of connections in use, in whichever of {@code MyDS} and {@code MyReadDS} is busier</li>
+ * <li>how full the {@link FruitExecutor} queue is</li>
+ * <li>the rolling p99 of database tasks</li>
+ * </ul>
+ * The check goes down when any signal reaches its high mark. It only comes back up after every
+ * signal has dropped below {@code fruits.saturation.recover-ratio} of its high mark and at least
+ * {@code fruits.saturation.hold-seconds} have passed, so it does not flap around the threshold.
+ */
+@Readiness
+@ApplicationScoped
+public class FruitSaturation implements HealthCheck {
+    private volatile boolean overloaded;
+
+    private volatile long overloadedSince;
+
+    private volatile String reason = "";
+
+    @Inject
+    private DataSourcePool pool;
+
+    @Inject
+    private FruitExecutor executor;
+
+    @Inject
+    @ConfigProperty(name = "fruits.saturation.pool-high", defaultValue = "0.95")
+    private double poolHigh;
+
+    @Inject
+    @ConfigProperty(name = "fruits.saturation.queue-high", defaultValue = "0.8")
+    private double queueHigh;
+
+    @Inject
+    @ConfigProperty(name = "fruits.saturation.p99-ms", defaultValue = "500")
+    private double p99High;
+
+    /**
+     * The p99 is ignored below this many samples in the window, a few slow calls on an idle pod are no overload.
+     */
+    @Inject
+    @ConfigProperty(name = "fruits.saturation.min-samples", defaultValue = "50")
+    private long minSamples;
+
+    @Inject
+    @ConfigProperty(name = "fruits.saturation.recover-ratio", defaultValue = "0.7")
+    private double recoverRatio;
+
+    @Inject
+    @ConfigProperty(name = "fruits.saturation.hold-seconds", defaultValue = "5")
+    private long holdSeconds;
+
+    @Override
+    public synchronized HealthCheckResponse call() {
+        double poolUsage = poolUsage();
+        double queueUsage = executor.getQueueSize() > 0 ? (double) executor.getQueueDepth() / executor.getQueueSize() : 0;
+        long samples = executor.getLatencySamples();
+        double p99 = samples >= minSamples ? executor.getP99Millis() : 0;
+
+        if (!overloaded) {
+            String cause = poolUsage >= poolHigh ? "pool"
+                    : queueUsage >= queueHigh ? "queue"
+                    : p99 >= p99High ? "latency"
+                    : null;
+            if (cause != null) {
+                overloaded = true;
+                overloadedSince = System.nanoTime();
+                reason = cause;
+            }
+        } else if (poolUsage < poolHigh * recoverRatio
+                && queueUsage < queueHigh * recoverRatio
+                && p99 < p99High * recoverRatio
+                && System.nanoTime() - overloadedSince >= TimeUnit.SECONDS.toNanos(holdSeconds)) {
+            overloaded = false;
+            reason = "";
+        }
+
+        return HealthCheckResponse.named("saturation")
+                .state(!overloaded)
+                .withData("reason", reason)
+                .withData("pool-usage", Math.round(poolUsage * 100) + "%")
+                .withData("queue-usage", Math.round(queueUsage * 100) + "%")
+                .withData("p99-ms", Math.round(p99))
+                .withData("samples", samples)
+                .build();
+    }
+
+    /**
+     * The state reported by the last {@link #call()}.
+     */
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    private double poolUsage() {
+        double usage = 0;
+        for (String dataSource : DataSourcePool.DATA_SOURCES) {
+            usage = Math.max(usage, pool.getUsage(dataSource));
+        }
+        return usage;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * Refuses to start against a sequence whose increment differs from {@link Fruit#ID_BLOCK_SIZE}.
+ * With the pooled-lo optimizer each {@code nextval} reserves a whole block of ids, so a sequence
+ * created with a smaller increment hands overlapping blocks to different nodes, and even to one
+ * node, and inserts fail on duplicate ids. Hibernate's schema validation does not look at the
+ * increment, and a schema generated by an older build, or by hand, may well have {@code INCREMENT BY 1}.
+ */
+@ApplicationScoped
+public class FruitSchemaCheck {
+    private static final Logger LOG = Logger.getLogger(FruitSchemaCheck.class.getName());
+
+    static final String SEQUENCE = "known_fruits_id_seq";
+
+    private static final String SQL = "SELECT increment FROM information_schema.sequences WHERE LOWER(sequence_name) = ?";
+
+    @Resource(lookup = "java:/jboss/datasources/MyDS")
+    private DataSource dataSource;
+
+    void init(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        Long increment = increment();
+        if (increment == null) {
+            LOG.warning(() -> "Cannot read the increment of " + SEQUENCE + ", make sure it is " + Fruit.ID_BLOCK_SIZE);
+        } else if (increment != Fruit.ID_BLOCK_SIZE) {
+            throw new IllegalStateException(SEQUENCE + " increments by " + increment + " but ids are reserved in blocks of "
+                                                    + Fruit.ID_BLOCK_SIZE + ", which would hand out duplicate ids. Run: "
+                                                    + alterStatement());
+        }
+    }
+
+    static String alterStatement() {
+        return "ALTER SEQUENCE " + SEQUENCE + " INCREMENT BY " + Fruit.ID_BLOCK_SIZE;
+    }
+
+    private Long increment() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SQL)) {
+            statement.setString(1, SEQUENCE);
+            try (ResultSet rs = statement.executeQuery()) {
+                // PostgreSQL reports it as text
+                return rs.next() ? Long.valueOf(rs.getString(1).trim()) : null;
+            }
+        } catch (SQLException e) {
+            // no information_schema.sequences on this database
+            LOG.fine(() -> "Sequence lookup failed: " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Name search over a {@link FruitNameIndex} loaded from the table at startup and kept up to date
+ * by committed changes. The index is also reloaded every {@code fruits.search.rebuild-seconds},
+ * which picks up writes made on other nodes; 0 turns that off.
+ */
+@ApplicationScoped
+public class FruitSearch {
+    private static final Logger LOG = Logger.getLogger(FruitSearch.class.getName());
+
+    private static final String SQL = "SELECT id, name FROM known_fruits";
+
+    private volatile FruitNameIndex index = new FruitNameIndex();
+
+    /**
+     * Changes committed while a rebuild reads the table, replayed on the new index; null otherwise.
+     */
+    private List<FruitChange> pending;
+
+    private ScheduledExecutorService rebuilds;
+
+    @Resource(lookup = "java:/jboss/datasources/MyDS")
+    private DataSource dataSource;
+
+    @Resource(lookup = "java:comp/DefaultManagedThreadFactory")
+    private ManagedThreadFactory threadFactory;
+
+    @Inject
+    private FruitQueryLog queries;
+
+    @Inject
+    @ConfigProperty(name = "fruits.stream.fetch-size", defaultValue = "500")
+    private int fetchSize;
+
+    @Inject
+    @ConfigProperty(name = "fruits.search.rebuild-seconds", defaultValue = "300")
+    private long rebuildSeconds;
+
+    void init(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        tryRebuild();
+        if (rebuildSeconds > 0) {
+            rebuilds = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            rebuilds.scheduleWithFixedDelay(this::tryRebuild, rebuildSeconds, rebuildSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (rebuilds != null) {
+            rebuilds.shutdownNow();
+        }
+    }
+
+    public List<FruitNameIndex.Entry> search(String query, int limit) {
+        return index.search(query, limit);
+    }
+
+    public int getSize() {
+        return index.size();
+    }
+
+    synchronized void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) FruitChange change) {
+        if (pending != null) {
+            pending.add(change);
+        }
+        apply(index, change);
+    }
+
+    synchronized void onImport(@Observes(during = TransactionPhase.AFTER_SUCCESS) FruitImported imported) {
+        for (Map.Entry<Integer, String> fruit : imported.getCreated().entrySet()) {
+            FruitChange change = new FruitChange(FruitChange.Type.CREATED, fruit.getKey(), fruit.getValue());
+            if (pending != null) {
+                pending.add(change);
+            }
+            apply(index, change);
+        }
+    }
+
+    private void tryRebuild() {
+        try {
+            long started = System.nanoTime();
+            rebuild();
+            LOG.info(() -> "Indexed " + index.size() + " fruit names in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms");
+        } catch (SQLException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Building the fruit name index failed, keeping the current one", e);
+        }
+    }
+
+    private void rebuild() throws SQLException {
+        synchronized (this) {
+            pending = new ArrayList<>();
+        }
+        FruitNameIndex fresh;
+        try {
+            fresh = load();
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                pending = null;
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            // replaying a change the table already had is harmless, puts and removes are idempotent
+            pending.forEach(change -> apply(fresh, change));
+            pending = null;
+            index = fresh;
+        }
+    }
+
+    private FruitNameIndex load() throws SQLException {
+        FruitNameIndex.Builder builder = new FruitNameIndex.Builder();
+        try (Connection connection = queries.connect(dataSource)) {
+            // PostgreSQL only honours the fetch size with a server-side cursor, which needs auto-commit off
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                try (ResultSet rs = queries.executeQuery(statement, SQL)) {
+                    while (rs.next()) {
+                        builder.add(rs.getInt(1), rs.getString(2));
+                    }
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        return builder.build();
+    }
+
+    private static void apply(FruitNameIndex target, FruitChange change) {
+        if (change.getType() == FruitChange.Type.DELETED) {
+            target.remove(change.getId());
+        } else {
+            target.put(change.getId(), change.getName());
+        }
+    }
+}
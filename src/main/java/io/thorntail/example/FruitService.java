@@ -0,0 +1,668 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.spi.JsonProvider;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.sql.DataSource;
+import javax.transaction.Transactional;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+/**
+ * The fruit operations behind {@link FruitResource}. Every method blocks on the database and
+ * returns the complete response, so the resource can run them on {@link FruitExecutor} threads.
+ */
+@ApplicationScoped
+public class FruitService {
+    // Json.createObjectBuilder and friends look the provider up again on every call
+    private static final JsonProvider JSON = JsonProvider.provider();
+
+    private static final Logger LOG = Logger.getLogger(FruitService.class.getName());
+
+    private static final String FETCH_SIZE = "org.hibernate.fetchSize";
+
+    // the representations of fruit reads, JSON first so that wildcards get JSON
+    private static final List<Variant> VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_JSON_TYPE, FruitCbor.CBOR).build();
+
+    private final SingleFlight<List<Object>, Fruit> singleReads = new SingleFlight<>();
+
+    private final SingleFlight<List<Object>, List<Fruit>> pageReads = new SingleFlight<>();
+
+    @PersistenceContext(unitName = "MyPU")
+    private EntityManager em;
+
+    // a read-only replica of MyDS, see FruitReadRouting
+    @PersistenceContext(unitName = "MyReadPU")
+    private EntityManager replica;
+
+    @Resource(lookup = "java:/jboss/datasources/MyDS")
+    private DataSource dataSource;
+
+    @Resource(lookup = "java:/jboss/datasources/MyReadDS")
+    private DataSource replicaDataSource;
+
+    @Inject
+    @ConfigProperty(name = "fruits.stream.fetch-size", defaultValue = "500")
+    private int fetchSize;
+
+    @Inject
+    @ConfigProperty(name = "fruits.page.default-limit", defaultValue = "100")
+    private int defaultLimit;
+
+    @Inject
+    @ConfigProperty(name = "fruits.page.max-limit", defaultValue = "1000")
+    private int maxLimit;
+
+    @Inject
+    @ConfigProperty(name = "fruits.multi-get.chunk-size", defaultValue = "100")
+    private int inChunkSize;
+
+    @Inject
+    @ConfigProperty(name = "fruits.batch.chunk-size", defaultValue = "50")
+    private int chunkSize;
+
+    @Inject
+    @ConfigProperty(name = "fruits.batch.max-size", defaultValue = "10000")
+    private int maxBatchSize;
+
+    @Inject
+    private FruitBatch batch;
+
+    @Inject
+    private FruitCache cache;
+
+    @Inject
+    private FruitListSnapshot snapshots;
+
+    @Inject
+    private FruitReadRouting routing;
+
+    @Inject
+    private FruitGroupCommit groupCommit;
+
+    @Inject
+    private FruitQueryLog queries;
+
+    @Inject
+    private Event<FruitChange> changes;
+
+    @Inject
+    @Metric(name = "fruits.multi-get.size", absolute = true)
+    private Histogram multiGetSizes;
+
+    @Inject
+    @Metric(name = "fruits.batch.size", absolute = true)
+    private Histogram batchSizes;
+
+    /**
+     * {@code writeToken} is the token of the caller's last write, if any; see {@link FruitReadRouting}.
+     */
+    public Response get(Integer after, Integer limit, String ids, String acceptEncoding,
+                        UriInfo uriInfo, Request request, String writeToken) throws IOException {
+        boolean useReplica = routing.useReplica(writeToken);
+        if (ids != null) {
+            return getMultiple(ids, useReplica);
+        }
+
+        if (after == null && limit == null) {
+            if (prefersCbor(request)) {
+                return Response.ok(stream(useReplica, FruitStream.Format.CBOR), FruitCbor.CBOR)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                        .build();
+            }
+
+            // built from the primary; a caller that just wrote waits for it to include that write
+            FruitListSnapshot.Snapshot snapshot = snapshots.get(routing.isRecentWrite(writeToken));
+            if (snapshot == null) {
+                return Response.ok(stream(useReplica, FruitStream.Format.JSON), MediaType.APPLICATION_JSON_TYPE)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                        .build();
+            }
+
+            String coding = FruitCompression.coding(acceptEncoding);
+            // each content coding is a different representation, so it gets its own strong tag
+            EntityTag tag = new EntityTag(coding != null ? snapshot.getDigest() + "-" + coding : snapshot.getDigest());
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                return notModified.tag(tag)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                        .build();
+            }
+            if (coding != null) {
+                return Response.ok("gzip".equals(coding) ? snapshot.getGzip() : snapshot.getDeflate(),
+                                   MediaType.APPLICATION_JSON_TYPE)
+                        .tag(tag)
+                        .header(HttpHeaders.CONTENT_ENCODING, coding)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                        .build();
+            }
+            return Response.ok(snapshot.getJson(), MediaType.APPLICATION_JSON_TYPE)
+                    .tag(tag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        int pageSize = limit != null ? limit : defaultLimit;
+        if (pageSize < 1 || pageSize > maxLimit) {
+            return error(422, "The limit must be between 1 and " + maxLimit + ".");
+        }
+
+        int from = after != null ? after : 0;
+        // identical page requests share one query; the result list is only read afterwards
+        List<Fruit> page = routing.read(useReplica,
+                                        () -> pageReads.get(Arrays.asList(from, pageSize, cache.generation(), true),
+                                                            () -> viewAfter(replica, from, pageSize)),
+                                        () -> pageReads.get(Arrays.asList(from, pageSize, cache.generation(), false),
+                                                            () -> viewAfter(em, from, pageSize)));
+
+        Response.ResponseBuilder response = Response.ok(page.toArray(new Fruit[0])).header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (page.size() == pageSize) {
+            // a full page means there may be more rows; the last id is the cursor for the next one
+            response.links(Link.fromUriBuilder(uriInfo.getRequestUriBuilder()
+                                                       .replaceQueryParam("after", page.get(pageSize - 1).getId())
+                                                       .replaceQueryParam("limit", pageSize))
+                                   .rel("next")
+                                   .build());
+        }
+        return response.build();
+    }
+
+    private Response getMultiple(String ids, boolean useReplica) {
+        Set<Integer> requested = new LinkedHashSet<>();
+        for (String id : ids.split(",")) {
+            if (id.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                requested.add(Integer.valueOf(id.trim()));
+            } catch (NumberFormatException e) {
+                return error(422, "Invalid id " + id.trim() + ".");
+            }
+        }
+        if (requested.size() > maxLimit) {
+            return error(422, "At most " + maxLimit + " ids may be requested at once.");
+        }
+        multiGetSizes.update(requested.size());
+
+        Map<Integer, Fruit> found = new HashMap<>();
+        List<Integer> toLoad = new ArrayList<>();
+        for (Integer id : requested) {
+            Fruit cached = cache.getIfPresent(id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                toLoad.add(id);
+            }
+        }
+
+        // replica rows may predate a write made here, so they are only cached once writes have settled
+        boolean cacheable = !useReplica || routing.isSettled();
+        for (int from = 0; from < toLoad.size(); from += inChunkSize) {
+            long generation = cache.generation();
+            List<Integer> chunk = toLoad.subList(from, Math.min(from + inChunkSize, toLoad.size()));
+            for (Fruit fruit : routing.read(useReplica, () -> viewByIds(replica, chunk), () -> viewByIds(em, chunk))) {
+                found.put(fruit.getId(), cacheable ? cache.put(fruit, generation) : fruit);
+            }
+        }
+
+        JsonArrayBuilder fruits = JSON.createArrayBuilder();
+        JsonArrayBuilder missing = JSON.createArrayBuilder();
+        for (Integer id : requested) {
+            Fruit fruit = found.get(id);
+            if (fruit == null) {
+                missing.add(id);
+            } else {
+                fruits.add(JSON.createObjectBuilder()
+                                   .add("id", fruit.getId())
+                                   .add("name", fruit.getName())
+                                   .add("version", fruit.getVersion()));
+            }
+        }
+        return Response.ok(JSON.createObjectBuilder()
+                                   .add("fruits", fruits)
+                                   .add("missing", missing)
+                                   .build())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .build();
+    }
+
+    /**
+     * Streams every row as NDJSON or CSV and logs the export rate once done.
+     */
+    public Response export(FruitStream.Format format, String writeToken) {
+        FruitStream rows = stream(routing.useReplica(writeToken), format);
+        StreamingOutput output = out -> {
+            long started = System.nanoTime();
+            rows.write(out);
+            double seconds = (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+            LOG.info(() -> "Exported " + rows.getRows() + " rows in " + seconds + "s, "
+                    + (seconds > 0 ? Math.round(rows.getRows() / seconds) : rows.getRows()) + " rows/s");
+        };
+        return Response.ok(output, format == FruitStream.Format.CSV ? FruitStream.CSV : FruitStream.NDJSON).build();
+    }
+
+    public Response getSingle(Integer id, Request request, String writeToken) {
+        boolean useReplica = routing.useReplica(writeToken);
+        Fruit fruit;
+        if (useReplica && !routing.isSettled()) {
+            // a local write is still replicating; the replica row must not replace the fresher cache entry
+            Fruit cached = cache.getIfPresent(id);
+            fruit = cached != null ? cached : find(id, true);
+        } else {
+            fruit = cache.get(id, key -> find(key, useReplica));
+        }
+        if (fruit == null) {
+            return Response.noContent().build();
+        }
+
+        EntityTag tag = tagOf(fruit);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        // the tag is the fruit's version, shared by its JSON and CBOR forms so If-Match works with either
+        if (notModified != null) {
+            return notModified.tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+        }
+        return Response.ok(fruit).tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+    }
+
+    @Transactional
+    public Response create(Fruit fruit) {
+        Response invalid = validateCreate(fruit);
+        if (invalid != null) {
+            return invalid;
+        }
+
+        try {
+            // the version is always assigned by the persistence provider
+            fruit.setVersion(null);
+            em.persist(fruit);
+            changes.fire(new FruitChange(FruitChange.Type.CREATED, fruit.getId(), fruit.getName()));
+        } catch (Exception e) {
+            return error(500, e.getMessage());
+        }
+        return Response.ok(fruit).status(201).tag(tagOf(fruit)).build();
+    }
+
+    @Transactional
+    public Response update(Integer id, String ifMatch, Fruit fruit) {
+        Response invalid = validateName(fruit);
+        if (invalid != null) {
+            return invalid;
+        }
+
+        Integer expectedVersion = null;
+        if (ifMatch != null && !ifMatch.trim().equals("*")) {
+            expectedVersion = versionOf(ifMatch);
+            if (expectedVersion == null) {
+                return error(412, "If-Match must carry a strong entity tag of this fruit.");
+            }
+        }
+
+        try {
+            Query statement = em.createNamedQuery(expectedVersion == null ? "Fruits.updateName" : "Fruits.updateNameIfVersion")
+                    .setParameter("name", fruit.getName())
+                    .setParameter("id", id);
+            if (expectedVersion != null) {
+                statement.setParameter("version", expectedVersion);
+            }
+
+            if (statement.executeUpdate() == 0) {
+                return expectedVersion == null
+                        ? error(404, "Fruit with id of " + id + " does not exist.")
+                        : preconditionFailure(id, expectedVersion);
+            }
+
+            Fruit result = new Fruit(fruit.getName());
+            result.setId(id);
+            changes.fire(new FruitChange(FruitChange.Type.UPDATED, id, result.getName()));
+            if (expectedVersion == null) {
+                // the new version is not known without reading the row back
+                return Response.ok(result).status(200).build();
+            }
+
+            result.setVersion(expectedVersion + 1);
+            return Response.ok(result).status(200).tag(tagOf(result)).build();
+        } catch (Exception e) {
+            return error(500, e.getMessage());
+        }
+    }
+
+    /**
+     * {@link #create} through {@link FruitGroupCommit}, committed together with concurrent writes.
+     */
+    public CompletionStage<Response> createGrouped(Fruit fruit) {
+        Response invalid = validateCreate(fruit);
+        if (invalid != null) {
+            return CompletableFuture.completedFuture(invalid);
+        }
+        return groupCommit.submit(FruitBatch.Operation.Type.CREATE, null, fruit.getName())
+                .thenApply(FruitService::groupResult);
+    }
+
+    /**
+     * An unconditional {@link #update} through {@link FruitGroupCommit}; unlike the direct path,
+     * the response carries the new version.
+     */
+    public CompletionStage<Response> updateGrouped(Integer id, Fruit fruit) {
+        Response invalid = validateName(fruit);
+        if (invalid != null) {
+            return CompletableFuture.completedFuture(invalid);
+        }
+        return groupCommit.submit(FruitBatch.Operation.Type.UPDATE, id, fruit.getName())
+                .thenApply(FruitService::groupResult);
+    }
+
+    public Response batch(JsonArray operations) {
+        if (operations == null) {
+            return error(415, "Invalid payload!");
+        }
+
+        if (operations.size() > maxBatchSize) {
+            return error(413, "A batch may contain at most " + maxBatchSize + " operations.");
+        }
+        batchSizes.update(operations.size());
+
+        JsonObject[] results = new JsonObject[operations.size()];
+        List<FruitBatch.Operation> chunk = new ArrayList<>(chunkSize);
+        for (int i = 0; i < operations.size(); i++) {
+            FruitBatch.Operation operation = parse(i, operations.get(i), results);
+            if (operation != null) {
+                chunk.add(operation);
+            }
+            if (chunk.size() == chunkSize || (i == operations.size() - 1 && !chunk.isEmpty())) {
+                applyChunk(chunk, results);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+
+        JsonArrayBuilder body = JSON.createArrayBuilder();
+        Arrays.stream(results).forEach(body::add);
+        return Response.ok(body.build()).build();
+    }
+
+    @Transactional
+    public Response delete(Integer id, String ifMatch) {
+        Integer expectedVersion = null;
+        if (ifMatch != null && !ifMatch.trim().equals("*")) {
+            expectedVersion = versionOf(ifMatch);
+            if (expectedVersion == null) {
+                return error(412, "If-Match must carry a strong entity tag of this fruit.");
+            }
+        }
+
+        try {
+            Query statement = em.createNamedQuery(expectedVersion == null ? "Fruits.delete" : "Fruits.deleteIfVersion")
+                    .setParameter("id", id);
+            if (expectedVersion != null) {
+                statement.setParameter("version", expectedVersion);
+            }
+
+            if (statement.executeUpdate() == 0) {
+                return expectedVersion == null
+                        ? error(404, "Fruit with id of " + id + " does not exist.")
+                        : preconditionFailure(id, expectedVersion);
+            }
+            changes.fire(new FruitChange(FruitChange.Type.DELETED, id, null));
+        } catch (Exception e) {
+            return error(500, e.getMessage());
+        }
+        return Response.status(204).build();
+    }
+
+    public long getCoalescedSingleReads() {
+        return singleReads.getCoalesced();
+    }
+
+    public long getSingleReadLoads() {
+        return singleReads.getLoads();
+    }
+
+    public long getCoalescedPageReads() {
+        return pageReads.getCoalesced();
+    }
+
+    public long getPageReadLoads() {
+        return pageReads.getLoads();
+    }
+
+    private FruitBatch.Operation parse(int index, JsonValue value, JsonObject[] results) {
+        FruitBatch.Operation.Type type = null;
+        Integer id = null;
+        boolean invalidId = false;
+        String name = null;
+        if (value instanceof JsonObject) {
+            JsonObject object = (JsonObject) value;
+            JsonValue op = object.get("op");
+            if (op instanceof JsonString) {
+                try {
+                    type = FruitBatch.Operation.Type.valueOf(((JsonString) op).getString().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    // reported below
+                }
+            }
+            if (object.get("id") instanceof JsonNumber) {
+                try {
+                    // getInt would truncate 1.9 to 1 and wrap 4294967297 around to 1
+                    id = object.getJsonNumber("id").intValueExact();
+                } catch (ArithmeticException e) {
+                    invalidId = true;
+                }
+            }
+            if (object.get("name") instanceof JsonString) {
+                name = object.getString("name");
+            }
+        }
+
+        FruitBatch.Operation operation = new FruitBatch.Operation(index, type, id, name);
+        if (type == null) {
+            results[index] = batchError(index, 422, "The op must be one of create, update or delete.");
+            return null;
+        }
+        if (invalidId) {
+            results[index] = operation.failure(422, "The id must be a whole number within the int range.");
+            return null;
+        }
+        if (type != FruitBatch.Operation.Type.DELETE && (name == null || name.trim().length() == 0)) {
+            results[index] = operation.failure(422, "The name is required!");
+            return null;
+        }
+        if (type == FruitBatch.Operation.Type.CREATE && id != null) {
+            results[index] = operation.failure(422, "Id was invalidly set on request.");
+            return null;
+        }
+        if (type != FruitBatch.Operation.Type.CREATE && id == null) {
+            results[index] = operation.failure(422, "The id is required!");
+            return null;
+        }
+        return operation;
+    }
+
+    private void applyChunk(List<FruitBatch.Operation> chunk, JsonObject[] results) {
+        List<JsonObject> applied;
+        try {
+            applied = batch.apply(chunk);
+        } catch (Exception e) {
+            // the chunk was rolled back; retry the items one by one so only the failing ones are reported
+            applied = new ArrayList<>(chunk.size());
+            for (FruitBatch.Operation operation : chunk) {
+                try {
+                    applied.addAll(batch.apply(Collections.singletonList(operation)));
+                } catch (Exception ex) {
+                    applied.add(operation.failure(500, ex.getMessage()));
+                }
+            }
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            results[chunk.get(i).index] = applied.get(i);
+        }
+    }
+
+    private JsonObject batchError(int index, int code, String message) {
+        return JSON.createObjectBuilder()
+                .add("index", index)
+                .add("code", code)
+                .add("error", message)
+                .build();
+    }
+
+    private static Response validateCreate(Fruit fruit) {
+        Response invalid = validateName(fruit);
+        if (invalid == null && fruit.getId() != null) {
+            return error(422, "Id was invalidly set on request.");
+        }
+        return invalid;
+    }
+
+    private static Response validateName(Fruit fruit) {
+        if (fruit == null) {
+            return error(415, "Invalid payload!");
+        }
+
+        if (fruit.getName() == null || fruit.getName().trim().length() == 0) {
+            return error(422, "The name is required!");
+        }
+        return null;
+    }
+
+    private static Response groupResult(JsonObject result) {
+        int code = result.getInt("code");
+        if (!result.containsKey("fruit")) {
+            return error(code, result.getString("error"));
+        }
+        JsonObject created = result.getJsonObject("fruit");
+        Fruit fruit = new Fruit(created.getInt("id"), created.getString("name"), created.getInt("version"));
+        return Response.ok(fruit).status(code).tag(tagOf(fruit)).build();
+    }
+
+    private Fruit find(Integer id, boolean useReplica) {
+        return routing.read(useReplica,
+                            () -> singleReads.get(Arrays.asList(id, cache.generation(), true), () -> findView(replica, id)),
+                            () -> singleReads.get(Arrays.asList(id, cache.generation(), false), () -> findView(em, id)));
+    }
+
+    private FruitStream stream(boolean useReplica, FruitStream.Format format) {
+        if (!useReplica) {
+            return new FruitStream(queries, dataSource, fetchSize, format);
+        }
+        return new FruitStream(queries, replicaDataSource, fetchSize, format).fallbackTo(dataSource, routing::replicaFailed);
+    }
+
+    private static Fruit findView(EntityManager source, Integer id) {
+        List<Fruit> result = source.createNamedQuery("Fruits.viewById", Fruit.class)
+                .setParameter("id", id)
+                .getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    private static List<Fruit> viewAfter(EntityManager source, int after, int limit) {
+        return source.createNamedQuery("Fruits.viewAfter", Fruit.class)
+                .setParameter("after", after)
+                .setHint(FETCH_SIZE, limit)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    private List<Fruit> viewByIds(EntityManager source, List<Integer> ids) {
+        return source.createNamedQuery("Fruits.viewByIds", Fruit.class)
+                .setParameter("ids", ids)
+                .setHint(FETCH_SIZE, inChunkSize)
+                .getResultList();
+    }
+
+    private Response preconditionFailure(Integer id, int expectedVersion) {
+        long count = em.createNamedQuery("Fruits.exists", Long.class)
+                .setParameter("id", id)
+                .getSingleResult();
+        if (count == 0) {
+            return error(404, "Fruit with id of " + id + " does not exist.");
+        }
+        return error(412, "Fruit with id of " + id + " is no longer at version " + expectedVersion + ".");
+    }
+
+    private static EntityTag tagOf(Fruit fruit) {
+        return new EntityTag(String.valueOf(fruit.getVersion()));
+    }
+
+    /**
+     * Extracts the version from a single strong entity tag; weak or multiple tags never match.
+     */
+    private static Integer versionOf(String ifMatch) {
+        String tag = ifMatch.trim();
+        if (tag.length() < 3 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+            return null;
+        }
+        try {
+            return Integer.valueOf(tag.substring(1, tag.length() - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean prefersCbor(Request request) {
+        Variant variant = request.selectVariant(VARIANTS);
+        return variant != null && FruitCbor.CBOR.isCompatible(variant.getMediaType());
+    }
+
+    static Response error(int code, String message) {
+        return Response
+                .status(code)
+                .entity(JSON.createObjectBuilder()
+                            .add("error", message)
+                            .add("code", code)
+                            .build()
+                )
+                .build();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Hibernate's view of a request. Registered per session through {@code hibernate.session.events.auto},
+ * it adds connection acquisition, statement execution, flush and commit times to the
+ * {@link RequestTiming} bound to the thread, and passes every statement to the
+ * {@link FruitQueryLog} that {@link FruitStatementInspector} handed over with its SQL.
+ * Commit time runs from the end of the last flush, the one before completion, to the completion callback.
+ */
+public class FruitSessionTiming extends BaseSessionEventListener {
+    private static final long serialVersionUID = 1L;
+
+    private String sql;
+
+    private transient FruitQueryLog queries;
+
+    private long acquisitionStarted;
+
+    private long executionStarted;
+
+    private long flushStarted;
+
+    private long flushEnded;
+
+    @Override
+    public void jdbcPrepareStatementStart() {
+        FruitStatementInspector.Inspected inspected = FruitStatementInspector.inspected();
+        sql = inspected.sql;
+        queries = inspected.queries;
+        inspected.clear();
+    }
+
+    @Override
+    public void jdbcConnectionAcquisitionStart() {
+        acquisitionStarted = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcConnectionAcquisitionEnd() {
+        RequestTiming timing = RequestTiming.current();
+        if (timing != null) {
+            timing.addPool(System.nanoTime() - acquisitionStarted);
+        }
+    }
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        executionStarted = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        executed(System.nanoTime() - executionStarted, false);
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        executionStarted = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        executed(System.nanoTime() - executionStarted, true);
+    }
+
+    @Override
+    public void flushStart() {
+        flushStarted = System.nanoTime();
+    }
+
+    @Override
+    public void flushEnd(int numberOfEntities, int numberOfCollections) {
+        flushed();
+    }
+
+    @Override
+    public void partialFlushStart() {
+        flushStarted = System.nanoTime();
+    }
+
+    @Override
+    public void partialFlushEnd(int numberOfEntities, int numberOfCollections) {
+        flushed();
+    }
+
+    @Override
+    public void transactionCompletion(boolean successful) {
+        RequestTiming timing = RequestTiming.current();
+        if (timing != null && flushEnded != 0) {
+            timing.addCommit(System.nanoTime() - flushEnded);
+        }
+        flushEnded = 0;
+    }
+
+    private void flushed() {
+        flushEnded = System.nanoTime();
+        RequestTiming timing = RequestTiming.current();
+        if (timing != null) {
+            timing.addFlush(flushEnded - flushStarted);
+        }
+    }
+
+    private void executed(long nanos, boolean batch) {
+        if (queries != null) {
+            queries.executed(sql, nanos, batch);
+        } else {
+            // not prepared through an inspected persistence unit
+            RequestTiming timing = RequestTiming.current();
+            if (timing != null) {
+                timing.addStatement(nanos);
+            }
+        }
+    }
+}
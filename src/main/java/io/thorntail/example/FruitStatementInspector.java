@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Hibernate's statement inspector for both persistence units. It changes nothing; it hands the
+ * SQL about to be prepared, and the {@link FruitQueryLog} configured for the persistence unit, to
+ * the {@link FruitSessionTiming} of the session, which Hibernate notifies right after on the same thread.
+ */
+public class FruitStatementInspector implements StatementInspector {
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<Inspected> INSPECTED = ThreadLocal.withInitial(Inspected::new);
+
+    private final transient FruitQueryLog queries;
+
+    public FruitStatementInspector() {
+        // created by Hibernate, outside CDI
+        this(new FruitQueryLog(ConfigProvider.getConfig()
+                                       .getOptionalValue(FruitQueryLog.SLOW_QUERY_MS, Long.class)
+                                       .orElse(Long.valueOf(FruitQueryLog.DEFAULT_SLOW_QUERY_MS))));
+    }
+
+    FruitStatementInspector(FruitQueryLog queries) {
+        this.queries = queries;
+    }
+
+    @Override
+    public String inspect(String sql) {
+        Inspected inspected = INSPECTED.get();
+        inspected.sql = sql;
+        inspected.queries = queries;
+        return sql;
+    }
+
+    /**
+     * What was last inspected on this thread; the reader clears it so it is only used once.
+     */
+    static Inspected inspected() {
+        return INSPECTED.get();
+    }
+
+    static final class Inspected {
+        String sql;
+
+        FruitQueryLog queries;
+
+        void clear() {
+            sql = null;
+            queries = null;
+        }
+    }
+}
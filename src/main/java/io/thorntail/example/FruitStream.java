@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+import javax.sql.DataSource;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes the whole {@code known_fruits} table as a JSON array, NDJSON, CSV or a CBOR array, straight from a
+ * forward-only JDBC cursor into the response, so memory stays flat regardless of the table size.
+ */
+class FruitStream implements StreamingOutput {
+    static final MediaType NDJSON = new MediaType("application", "x-ndjson");
+
+    static final MediaType CSV = new MediaType("text", "csv");
+
+    private static final String SQL = "SELECT id, name, version FROM known_fruits ORDER BY id";
+
+    // looked up once, the provider lookup behind Json.createValue or Json.createGenerator is far more expensive than the call
+    private static final JsonProvider JSON = JsonProvider.provider();
+
+    enum Format {
+        JSON, NDJSON, CSV, CBOR
+    }
+
+    private final FruitQueryLog queries;
+
+    private final DataSource dataSource;
+
+    private final int fetchSize;
+
+    private final Format format;
+
+    private DataSource fallback;
+
+    private Runnable onFallback;
+
+    private long rows;
+
+    FruitStream(FruitQueryLog queries, DataSource dataSource, int fetchSize) {
+        this(queries, dataSource, fetchSize, Format.JSON);
+    }
+
+    FruitStream(FruitQueryLog queries, DataSource dataSource, int fetchSize, Format format) {
+        this.queries = queries;
+        this.dataSource = dataSource;
+        this.fetchSize = fetchSize;
+        this.format = format;
+    }
+
+    /**
+     * Reads from {@code fallback} instead when no connection can be had from the data source,
+     * calling {@code onFallback} first.
+     */
+    FruitStream fallbackTo(DataSource fallback, Runnable onFallback) {
+        this.fallback = fallback;
+        this.onFallback = onFallback;
+        return this;
+    }
+
+    /**
+     * Rows written by the last {@link #write(OutputStream)}.
+     */
+    long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        rows = 0;
+        try (Connection connection = connect()) {
+            // PostgreSQL only honours the fetch size with a server-side cursor, which needs auto-commit off
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                try (ResultSet rs = queries.executeQuery(statement, SQL)) {
+                    if (format == Format.JSON) {
+                        writeArray(rs, output);
+                    } else if (format == Format.CBOR) {
+                        writeCbor(rs, output);
+                    } else {
+                        writeLines(rs, output);
+                    }
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new WebApplicationException(e);
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        try {
+            return queries.connect(dataSource);
+        } catch (SQLException e) {
+            if (fallback == null) {
+                throw e;
+            }
+            onFallback.run();
+            return queries.connect(fallback);
+        }
+    }
+
+    private void writeArray(ResultSet rs, OutputStream output) throws SQLException {
+        try (JsonGenerator generator = JSON.createGenerator(output)) {
+            generator.writeStartArray();
+            while (rs.next()) {
+                generator.writeStartObject()
+                        .write("id", rs.getInt(1));
+                String name = rs.getString(2);
+                if (name == null) {
+                    generator.writeNull("name");
+                } else {
+                    generator.write("name", name);
+                }
+                generator.write("version", rs.getInt(3));
+                generator.writeEnd();
+                rows++;
+            }
+            generator.writeEnd();
+        }
+    }
+
+    private void writeCbor(ResultSet rs, OutputStream output) throws SQLException, IOException {
+        // the row count is not known up front, so the array is indefinite-length
+        FruitCbor cbor = new FruitCbor(output).startArray();
+        while (rs.next()) {
+            cbor.write(rs.getInt(1), rs.getString(2), rs.getInt(3));
+            rows++;
+        }
+        cbor.end().flush();
+    }
+
+    private void writeLines(ResultSet rs, OutputStream output) throws SQLException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 8192);
+        if (format == Format.CSV) {
+            writer.write("id,name,version\n");
+        }
+        while (rs.next()) {
+            String name = rs.getString(2);
+            if (format == Format.NDJSON) {
+                writer.write("{\"id\":");
+                writer.write(Integer.toString(rs.getInt(1)));
+                writer.write(",\"name\":");
+                writer.write(name == null ? "null" : JSON.createValue(name).toString());
+                writer.write(",\"version\":");
+                writer.write(Integer.toString(rs.getInt(3)));
+                writer.write("}\n");
+            } else {
+                writer.write(Integer.toString(rs.getInt(1)));
+                writer.write(',');
+                writer.write(name == null ? "" : csvField(name));
+                writer.write(',');
+                writer.write(Integer.toString(rs.getInt(3)));
+                writer.write('\n');
+            }
+            rows++;
+        }
+        writer.flush();
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Breaks the latency of a sampled {@link FruitResource} request down into reading the body,
+ * waiting for {@link FruitExecutor}, waiting for a connection, SQL, flush and commit. The breakdown
+ * goes out as a {@code Server-Timing} header and, once the body is written, as a {@code key=value}
+ * log line: at FINE for every sampled request, at INFO for those slower than
+ * {@code fruits.timing.slow-request-ms}. The database phases come from {@link FruitQueryLog} and
+ * {@link FruitSessionTiming}; statements that stream the body are only in the log line.
+ */
+@Provider
+@ApplicationScoped
+public class FruitTiming implements DynamicFeature {
+    private static final Logger LOG = Logger.getLogger(FruitTiming.class.getName());
+
+    private static final String TIMING = RequestTiming.class.getName();
+
+    @Inject
+    @ConfigProperty(name = "fruits.timing.sample-rate", defaultValue = "1.0")
+    private double sampleRate;
+
+    @Inject
+    @ConfigProperty(name = "fruits.timing.header", defaultValue = "true")
+    private boolean header;
+
+    @Inject
+    @ConfigProperty(name = "fruits.timing.slow-request-ms", defaultValue = "500")
+    private long slowRequestMillis;
+
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        if (sampleRate <= 0 || resourceInfo.getResourceClass() != FruitResource.class) {
+            return;
+        }
+        // a change stream has no latency to break down
+        Produces produces = resourceInfo.getResourceMethod().getAnnotation(Produces.class);
+        if (produces != null && Arrays.asList(produces.value()).contains(MediaType.SERVER_SENT_EVENTS)) {
+            return;
+        }
+        context.register(new TimingFilter(this));
+    }
+
+    private boolean sample() {
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private void log(RequestTiming timing, int status, long write) {
+        Level level = timing.started + TimeUnit.MILLISECONDS.toNanos(slowRequestMillis) <= System.nanoTime() ? Level.INFO : Level.FINE;
+        if (LOG.isLoggable(level)) {
+            LOG.log(level, timing.logLine(status, write));
+        }
+    }
+
+    private static final class TimingFilter implements ContainerRequestFilter, ContainerResponseFilter,
+            ReaderInterceptor, WriterInterceptor {
+        private final FruitTiming owner;
+
+        TimingFilter(FruitTiming owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void filter(ContainerRequestContext request) {
+            if (owner.sample()) {
+                RequestTiming timing = new RequestTiming(request.getMethod(), request.getUriInfo().getPath());
+                request.setProperty(TIMING, timing);
+                // picked up by FruitExecutor when the resource method hands the request over
+                timing.bind();
+            }
+        }
+
+        @Override
+        public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException {
+            RequestTiming timing = (RequestTiming) context.getProperty(TIMING);
+            if (timing == null) {
+                return context.proceed();
+            }
+            long started = System.nanoTime();
+            try {
+                return context.proceed();
+            } finally {
+                timing.addRead(System.nanoTime() - started);
+            }
+        }
+
+        @Override
+        public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+            RequestTiming timing = (RequestTiming) request.getProperty(TIMING);
+            if (timing == null) {
+                return;
+            }
+            timing.finish();
+            if (owner.header) {
+                response.getHeaders().add("Server-Timing", timing.serverTiming());
+            }
+            if (!response.hasEntity()) {
+                timing.unbind();
+                owner.log(timing, response.getStatus(), 0);
+            } else {
+                request.setProperty(TIMING + ".status", response.getStatus());
+            }
+        }
+
+        @Override
+        public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+            RequestTiming timing = (RequestTiming) context.getProperty(TIMING);
+            if (timing == null) {
+                context.proceed();
+                return;
+            }
+            long started = System.nanoTime();
+            // streamed bodies run their statements while writing, after the header went out
+            timing.bind();
+            try {
+                context.proceed();
+            } finally {
+                timing.unbind();
+                Object status = context.getProperty(TIMING + ".status");
+                owner.log(timing, status != null ? (Integer) status : 0, System.nanoTime() - started);
+            }
+        }
+    }
+}
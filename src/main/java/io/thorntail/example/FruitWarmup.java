@@ -0,0 +1,304 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.HealthCheckResponseBuilder;
+import org.eclipse.microprofile.health.Readiness;
+
+/**
+ * Warms the service up before it reports ready. The phases are:
+ * <ul>
+ * <li>{@code pool}: opens {@code fruits.warmup.connections} connections on both datasources</li>
+ * <li>{@code queries}: runs every read query once on both persistence units, so statements are
+ * prepared and the IN-list shapes are in Hibernate's plan cache</li>
+ * <li>{@code http}: sends {@code fruits.warmup.passes} rounds of read requests to the service
+ * itself, so RESTEasy, the JSON and CBOR writers, compression and the JIT have seen real traffic</li>
+ * </ul>
+ * Each phase is timed, logged and kept for the {@code fruits.warmup.duration} gauges. The readiness
+ * check is down until the last phase is done; a failing phase is logged and does not block readiness.
+ */
+@Readiness
+@ApplicationScoped
+public class FruitWarmup implements HealthCheck {
+    static final List<String> PHASES = Arrays.asList("pool", "queries", "http", "total");
+
+    /**
+     * Sent with a per-boot secret on the warm-up's own requests, so {@link FruitAdmission} does not limit them.
+     */
+    static final String REQUEST_HEADER = "Fruits-Warmup";
+
+    private static final Logger LOG = Logger.getLogger(FruitWarmup.class.getName());
+
+    // read requests of the kinds the clients send, as {path, Accept, Accept-Encoding}
+    private static final String[][] REQUESTS = {
+            {"/api/fruits?limit=20", "application/json", "gzip"},
+            {"/api/fruits?limit=20", FruitCbor.MEDIA_TYPE, "identity"},
+            {"/api/fruits", "application/json", "gzip"},
+            {"/api/fruits/1", "application/json", "identity"},
+            {"/api/fruits/1", FruitCbor.MEDIA_TYPE, "identity"},
+            {"/api/fruits?ids=1,2,3", "application/json", "identity"},
+            {"/api/fruits/search?q=an", "application/json", "identity"},
+    };
+
+    private final Map<String, Long> durations = new ConcurrentHashMap<>();
+
+    private final String requestSecret = UUID.randomUUID().toString();
+
+    private volatile String phase = "pending";
+
+    private volatile boolean done;
+
+    @PersistenceContext(unitName = "MyPU")
+    private EntityManager em;
+
+    @PersistenceContext(unitName = "MyReadPU")
+    private EntityManager replica;
+
+    @Resource(lookup = "java:/jboss/datasources/MyDS")
+    private DataSource dataSource;
+
+    @Resource(lookup = "java:/jboss/datasources/MyReadDS")
+    private DataSource replicaDataSource;
+
+    @Resource(lookup = "java:comp/DefaultManagedThreadFactory")
+    private ManagedThreadFactory threadFactory;
+
+    @Inject
+    @ConfigProperty(name = "fruits.warmup.enabled", defaultValue = "true")
+    private boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "fruits.warmup.connections", defaultValue = "5")
+    private int connections;
+
+    @Inject
+    @ConfigProperty(name = "fruits.warmup.passes", defaultValue = "50")
+    private int passes;
+
+    @Inject
+    @ConfigProperty(name = "fruits.warmup.timeout-seconds", defaultValue = "60")
+    private long timeoutSeconds;
+
+    @Inject
+    @ConfigProperty(name = "fruits.warmup.port", defaultValue = "0")
+    private int port;
+
+    @Inject
+    @ConfigProperty(name = "fruits.multi-get.chunk-size", defaultValue = "100")
+    private int inChunkSize;
+
+    void init(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if (!enabled) {
+            phase = "disabled";
+            done = true;
+            return;
+        }
+        // the HTTP phase needs the deployment to be up, so nothing here may block it
+        Thread thread = threadFactory.newThread(this::run);
+        thread.setName("fruits-warmup");
+        thread.start();
+    }
+
+    @Override
+    public HealthCheckResponse call() {
+        HealthCheckResponseBuilder response = HealthCheckResponse.named("warm-up")
+                .state(done)
+                .withData("phase", phase);
+        durations.forEach((name, millis) -> response.withData(name + "-ms", millis));
+        return response.build();
+    }
+
+    /**
+     * Milliseconds the phase took, -1 until it has run.
+     */
+    public long getDuration(String name) {
+        return durations.getOrDefault(name, -1L);
+    }
+
+    private void run() {
+        long started = System.nanoTime();
+        phase("pool", this::fillPools);
+        phase("queries", this::runQueries);
+        phase("http", this::sendRequests);
+        durations.put("total", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        phase = "done";
+        done = true;
+        LOG.info(() -> "Warm-up finished in " + durations.get("total") + "ms, ready "
+                + ManagementFactory.getRuntimeMXBean().getUptime() + "ms after JVM start");
+    }
+
+    private void phase(String name, Task task) {
+        phase = name;
+        long started = System.nanoTime();
+        try {
+            task.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Warm-up phase " + name + " failed", e);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        durations.put(name, millis);
+        LOG.info(() -> "Warm-up phase " + name + " took " + millis + "ms");
+    }
+
+    private void fillPools() throws SQLException {
+        for (DataSource source : Arrays.asList(dataSource, replicaDataSource)) {
+            // held at the same time, or the pool would hand out the same connection every time
+            List<Connection> held = new ArrayList<>(connections);
+            try {
+                for (int i = 0; i < connections; i++) {
+                    held.add(source.getConnection());
+                }
+            } finally {
+                for (Connection connection : held) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void runQueries() {
+        for (EntityManager source : Arrays.asList(em, replica)) {
+            try {
+                source.createNamedQuery("Fruits.viewAfter", Fruit.class)
+                        .setParameter("after", 0)
+                        .setMaxResults(20)
+                        .getResultList();
+                source.createNamedQuery("Fruits.viewById", Fruit.class).setParameter("id", 0).getResultList();
+                source.createNamedQuery("Fruits.exists", Long.class).setParameter("id", 0).getSingleResult();
+                // IN lists are padded to powers of two, so these are all the shapes a multi-get can produce
+                for (int size = 1; size < inChunkSize * 2; size *= 2) {
+                    source.createNamedQuery("Fruits.viewByIds", Fruit.class)
+                            .setParameter("ids", Collections.nCopies(size, 0))
+                            .getResultList();
+                }
+                source.createNamedQuery("Fruits.namesIn", String.class)
+                        .setParameter("names", Collections.singletonList(""))
+                        .getResultList();
+            } catch (PersistenceException e) {
+                LOG.log(Level.WARNING, "Warm-up queries failed on " + (source == em ? "MyPU" : "MyReadPU"), e);
+            }
+        }
+    }
+
+    private void sendRequests() throws IOException, InterruptedException {
+        String base = "http://localhost:" + (port > 0 ? port : boundPort());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (get(base, REQUESTS[0]) != 200) {
+            if (System.nanoTime() > deadline) {
+                throw new IOException("The fruit endpoints did not answer within " + timeoutSeconds + "s");
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+
+        long first = 0;
+        long last = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            long started = System.nanoTime();
+            for (String[] request : REQUESTS) {
+                get(base, request);
+            }
+            last = System.nanoTime() - started;
+            if (pass == 0) {
+                first = last;
+            }
+        }
+        long firstMicros = TimeUnit.NANOSECONDS.toMicros(first);
+        long lastMicros = TimeUnit.NANOSECONDS.toMicros(last);
+        LOG.info(() -> "Warm-up requests: first pass " + firstMicros + "us, last pass " + lastMicros + "us");
+    }
+
+    /**
+     * Whether a request carries the secret of this warm-up in {@link #REQUEST_HEADER}.
+     */
+    boolean isOwnRequest(String header) {
+        return header != null && MessageDigest.isEqual(header.getBytes(StandardCharsets.UTF_8),
+                                                       requestSecret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int get(String base, String[] request) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(base + request[0]).openConnection();
+            connection.setConnectTimeout(1000);
+            connection.setReadTimeout(10000);
+            connection.setRequestProperty("Accept", request[1]);
+            connection.setRequestProperty("Accept-Encoding", request[2]);
+            connection.setRequestProperty(REQUEST_HEADER, requestSecret);
+            int status = connection.getResponseCode();
+            try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body != null) {
+                    byte[] buffer = new byte[8192];
+                    while (body.read(buffer) >= 0) {
+                        // drained so the connection is reused
+                    }
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static int boundPort() {
+        try {
+            Object value = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    new ObjectName("jboss.as:socket-binding-group=standard-sockets,socket-binding=http"), "boundPort");
+            return value instanceof Number ? ((Number) value).intValue() : 8080;
+        } catch (JMException | RuntimeException e) {
+            return 8080;
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+}
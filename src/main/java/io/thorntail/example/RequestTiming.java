@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+/**
+ * Where the time of one sampled request went. {@link FruitTiming} creates it, {@link FruitExecutor}
+ * binds it to the thread running the database work, and {@link FruitSessionTiming} and
+ * {@link FruitQueryLog} add the database phases to it. The request moves between threads through executor hand-offs, so plain
+ * fields are enough. All times are in nanoseconds.
+ */
+final class RequestTiming {
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    final String method;
+
+    final String path;
+
+    final long started = System.nanoTime();
+
+    private long read;
+
+    private long queue;
+
+    private long pool;
+
+    private long sql;
+
+    private int statements;
+
+    private long flush;
+
+    private long commit;
+
+    private long total;
+
+    RequestTiming(String method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+
+    /**
+     * The timing bound to the current thread, if any.
+     */
+    static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Unbinds and returns the timing bound to the current thread, if any.
+     */
+    static RequestTiming take() {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            CURRENT.remove();
+        }
+        return timing;
+    }
+
+    void bind() {
+        CURRENT.set(this);
+    }
+
+    void unbind() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    void addRead(long nanos) {
+        read += nanos;
+    }
+
+    void addQueue(long nanos) {
+        queue += nanos;
+    }
+
+    void addPool(long nanos) {
+        pool += nanos;
+    }
+
+    void addStatement(long nanos) {
+        sql += nanos;
+        statements++;
+    }
+
+    void addFlush(long nanos) {
+        flush += nanos;
+    }
+
+    void addCommit(long nanos) {
+        commit += nanos;
+    }
+
+    /**
+     * Stops the clock for everything up to the response headers.
+     */
+    void finish() {
+        total = System.nanoTime() - started;
+    }
+
+    /**
+     * The {@code Server-Timing} header value, in milliseconds. Flush time includes the statements it ran.
+     */
+    String serverTiming() {
+        StringBuilder header = new StringBuilder(160);
+        metric(header, "read", read).append(", ");
+        metric(header, "queue", queue).append(", ");
+        metric(header, "pool", pool).append(", ");
+        metric(header, "sql", sql).append(";desc=\"").append(statements).append(" statements\", ");
+        metric(header, "flush", flush).append(", ");
+        metric(header, "commit", commit).append(", ");
+        return metric(header, "total", total).toString();
+    }
+
+    /**
+     * One {@code key=value} log line, with {@code write} being the time taken to write the response body.
+     */
+    String logLine(int status, long write) {
+        StringBuilder line = new StringBuilder(200)
+                .append("method=").append(method)
+                .append(" path=").append(path)
+                .append(" status=").append(status);
+        millis(line.append(" total="), total + write);
+        millis(line.append(" read="), read);
+        millis(line.append(" queue="), queue);
+        millis(line.append(" pool="), pool);
+        millis(line.append(" sql="), sql);
+        line.append(" statements=").append(statements);
+        millis(line.append(" flush="), flush);
+        millis(line.append(" commit="), commit);
+        millis(line.append(" write="), write);
+        return line.toString();
+    }
+
+    private static StringBuilder metric(StringBuilder header, String name, long nanos) {
+        return millis(header.append(name).append(";dur="), nanos);
+    }
+
+    // milliseconds with microsecond precision, without the cost of String.format
+    static StringBuilder millis(StringBuilder out, long nanos) {
+        long micros = nanos / 1000;
+        long fraction = micros % 1000;
+        out.append(micros / 1000).append('.');
+        if (fraction < 100) {
+            out.append(fraction < 10 ? "00" : "0");
+        }
+        return out.append(fraction);
+    }
+}
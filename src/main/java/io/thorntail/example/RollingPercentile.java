@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency percentiles over the last few seconds, kept as one log-scale histogram per second in a
+ * ring. Buckets are a quarter of a power of two wide, so a percentile is accurate to about 19%,
+ * which is plenty to tell a healthy database from a struggling one. Recording is lock-free; a
+ * sample that races with the reuse of its second's slot may be lost.
+ */
+class RollingPercentile {
+    // quarter powers of two from 1us up to about 70 minutes
+    private static final int BUCKETS = 4 * 32;
+
+    private final Slot[] slots;
+
+    RollingPercentile(int windowSeconds) {
+        slots = new Slot[Math.max(1, windowSeconds)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    void record(long nanos) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        Slot slot = slots[(int) Math.floorMod(second, (long) slots.length)];
+        long stamp = slot.second.get();
+        if (stamp != second && slot.second.compareAndSet(stamp, second)) {
+            for (int i = 0; i < BUCKETS; i++) {
+                slot.counts.set(i, 0);
+            }
+        }
+        slot.counts.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    /**
+     * Samples recorded within the window.
+     */
+    long count() {
+        long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long count = 0;
+        for (Slot slot : slots) {
+            if (isRecent(slot, now)) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    count += slot.counts.get(i);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The upper bound, in milliseconds, of the bucket holding the given quantile, or 0 without samples.
+     */
+    double percentileMillis(double quantile) {
+        long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long[] merged = new long[BUCKETS];
+        long total = 0;
+        for (Slot slot : slots) {
+            if (isRecent(slot, now)) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    long count = slot.counts.get(i);
+                    merged[i] += count;
+                    total += count;
+                }
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += merged[i];
+            if (seen >= rank) {
+                return upperBoundMicros(i) / 1000.0;
+            }
+        }
+        return upperBoundMicros(BUCKETS - 1) / 1000.0;
+    }
+
+    private boolean isRecent(Slot slot, long now) {
+        return slot.second.get() > now - slots.length;
+    }
+
+    static int bucket(long micros) {
+        if (micros <= 1) {
+            return 0;
+        }
+        // four buckets per power of two, from the top two bits below the leading one
+        int log = 63 - Long.numberOfLeadingZeros(micros);
+        int fraction = log >= 2 ? (int) (micros >>> (log - 2)) & 3 : (int) (micros << (2 - log)) & 3;
+        return Math.min(BUCKETS - 1, log * 4 + fraction);
+    }
+
+    static long upperBoundMicros(int bucket) {
+        int log = bucket / 4;
+        int fraction = bucket % 4;
+        return (long) Math.ceil(Math.pow(2, log) * (1 + (fraction + 1) / 4.0));
+    }
+
+    private static final class Slot {
+        final AtomicLong second = new AtomicLong(Long.MIN_VALUE);
+
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    }
+}
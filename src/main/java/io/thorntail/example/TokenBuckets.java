@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc, and individual contributors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.thorntail.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free table of token buckets keyed by 64-bit hashes. Each bucket is a single
+ * long, the time at which it will be full again (the generic cell rate algorithm), packed next to
+ * its key in one {@link AtomicLongArray}, so memory stays at 16 bytes per slot no matter how many
+ * distinct keys arrive.
+ * <p>
+ * A key probes a few neighbouring slots. When they are all taken by other keys, the bucket closest
+ * to full is evicted, which costs nothing for a full one and at worst gives a busy client a fresh
+ * bucket. Updates to the same bucket retry a compare-and-set; a bucket evicted while a request is
+ * using it may admit a request too many.
+ */
+class TokenBuckets {
+    private static final int PROBES = 4;
+
+    private final AtomicLongArray table;
+
+    private final int mask;
+
+    private final long origin = System.nanoTime();
+
+    TokenBuckets(int buckets) {
+        int size = Integer.highestOneBit(Math.max(PROBES, Math.min(buckets, 1 << 28)) - 1) << 1;
+        table = new AtomicLongArray(2 * size);
+        mask = size - 1;
+    }
+
+    int size() {
+        return mask + 1;
+    }
+
+    /**
+     * Takes {@code cost} tokens from the bucket of {@code key} if it has them.
+     *
+     * @return 0 when the tokens were taken, otherwise the nanoseconds until the bucket will hold them
+     */
+    long acquire(long key, Limit limit, int cost) {
+        int slot = slot(key);
+        long increment = cost * limit.interval;
+        // a request costing more than the whole bucket still passes on a full one
+        long tolerance = Math.max(limit.tolerance, increment);
+        for (;;) {
+            long full = table.get(2 * slot + 1);
+            long now = now();
+            long next = Math.max(full, now) + increment;
+            long wait = next - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (table.compareAndSet(2 * slot + 1, full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private int slot(long key) {
+        int start = (int) key & mask;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (table.get(2 * slot) == key) {
+                return slot;
+            }
+        }
+
+        for (;;) {
+            int victim = -1;
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < PROBES; i++) {
+                int slot = (start + i) & mask;
+                long taken = table.get(2 * slot);
+                if (taken == key) {
+                    return slot;
+                }
+                if (taken == 0) {
+                    victim = slot;
+                    break;
+                }
+                long full = table.get(2 * slot + 1);
+                if (full < oldest) {
+                    oldest = full;
+                    victim = slot;
+                }
+            }
+            long previous = table.get(2 * victim);
+            if (previous == key) {
+                return victim;
+            }
+            if (table.compareAndSet(2 * victim, previous, key)) {
+                if (previous != 0) {
+                    table.set(2 * victim + 1, 0);
+                }
+                return victim;
+            }
+        }
+    }
+
+    private long now() {
+        // never 0, so a fresh slot always reads as full
+        return System.nanoTime() - origin + 1;
+    }
+
+    /**
+     * A non-zero 64-bit hash of a bucket class and a client key.
+     */
+    static long key(int kind, String client) {
+        long hash = 0xcbf29ce484222325L ^ kind;
+        for (byte b : client.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        // murmur3 finalizer, so neighbouring keys spread over the table
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * A refill rate and bucket size, both in tokens.
+     */
+    static final class Limit {
+        final long interval;
+
+        final long tolerance;
+
+        Limit(double perSecond, double burst) {
+            interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+            tolerance = (long) (interval * burst);
+        }
+    }
+}
@@ -1,3 +1,3 @@
-INSERT INTO known_fruits(id, name) VALUES (1, 'Cherry')
-INSERT INTO known_fruits(id, name) VALUES (2, 'Apple')
-INSERT INTO known_fruits(id, name) VALUES (3, 'Banana')
+INSERT INTO known_fruits(id, name, version) VALUES (1, 'Cherry', 0)
+INSERT INTO known_fruits(id, name, version) VALUES (2, 'Apple', 0)
+INSERT INTO known_fruits(id, name, version) VALUES (3, 'Banana', 0)
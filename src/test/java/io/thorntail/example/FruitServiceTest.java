@@ -19,12 +19,34 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.SseEventSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.InflaterInputStream;
 
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.jboss.arquillian.container.test.api.RunAsClient;
 import org.jboss.arquillian.junit.Arquillian;
 import org.junit.Test;
@@ -32,6 +54,9 @@ import org.junit.runner.RunWith;
 import org.wildfly.swarm.arquillian.DefaultDeployment;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(Arquillian.class)
@@ -51,6 +76,49 @@ public class FruitServiceTest {
         assertTrue(values.size() > 0);
     }
 
+    @Test
+    @RunAsClient
+    public void pagedFruits() {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .queryParam("limit", 2);
+
+        Response response = target.request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        JsonArray values = Json.parse(response.readEntity(String.class)).asArray();
+        assertEquals(2, values.size());
+        assertEquals(1, values.get(0).asObject().get("id").asInt());
+        assertEquals(2, values.get(1).asObject().get("id").asInt());
+        assertNotNull(response.getLink("next"));
+
+        response = client.target(response.getLink("next")).request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        values = Json.parse(response.readEntity(String.class)).asArray();
+        assertTrue(values.size() > 0);
+        assertTrue(values.get(0).asObject().get("id").asInt() > 2);
+    }
+
+    @Test
+    @RunAsClient
+    public void fruitsByIds() {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .queryParam("ids", "2,12345678,1");
+
+        Response response = target.request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        JsonObject value = Json.parse(response.readEntity(String.class)).asObject();
+        JsonArray fruits = value.get("fruits").asArray();
+        assertEquals(2, fruits.size());
+        assertEquals("Apple", fruits.get(0).asObject().get("name").asString());
+        assertEquals("Cherry", fruits.get(1).asObject().get("name").asString());
+        assertEquals(12345678, value.get("missing").asArray().get(0).asInt());
+    }
+
     @Test
     @RunAsClient
     public void fruitById() {
@@ -89,6 +157,75 @@ public class FruitServiceTest {
         return value;
     }
 
+    @Test
+    @RunAsClient
+    public void batchFruits() {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .path("/batch");
+
+        String operations = new JsonArray()
+                .add(new JsonObject().add("op", "create").add("name", "Mango"))
+                .add(new JsonObject().add("op", "create").add("name", "Papaya"))
+                .add(new JsonObject().add("op", "create"))
+                .add(new JsonObject().add("op", "delete").add("id", 12345678))
+                // would be fruit 1 if the ids were truncated
+                .add(new JsonObject().add("op", "delete").add("id", 1.9))
+                .add(new JsonObject().add("op", "update").add("id", 4294967297L).add("name", "Mango"))
+                .toString();
+
+        Response response = target.request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(operations, MediaType.APPLICATION_JSON));
+        assertEquals(200, response.getStatus());
+        JsonArray results = Json.parse(response.readEntity(String.class)).asArray();
+        assertEquals(6, results.size());
+        assertEquals(201, results.get(0).asObject().get("code").asInt());
+        assertEquals("Mango", results.get(0).asObject().get("fruit").asObject().get("name").asString());
+        assertEquals(201, results.get(1).asObject().get("code").asInt());
+        assertEquals(422, results.get(2).asObject().get("code").asInt());
+        assertEquals(404, results.get(3).asObject().get("code").asInt());
+        assertEquals(422, results.get(4).asObject().get("code").asInt());
+        assertEquals(422, results.get(5).asObject().get("code").asInt());
+    }
+
+    @Test
+    @RunAsClient
+    public void batchRepeatedIds() {
+        JsonObject durian = createNewFruit("Durian");
+        int id = durian.get("id").asInt();
+        int version = durian.get("version").asInt();
+
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .path("/batch");
+
+        // operations on the same fruit apply in order, as if sent one by one
+        String operations = new JsonArray()
+                .add(new JsonObject().add("op", "update").add("id", id).add("name", "Durian 1"))
+                .add(new JsonObject().add("op", "update").add("id", id).add("name", "Durian 2"))
+                .add(new JsonObject().add("op", "delete").add("id", id))
+                .add(new JsonObject().add("op", "update").add("id", id).add("name", "Durian 3"))
+                .toString();
+
+        Response response = target.request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(operations, MediaType.APPLICATION_JSON));
+        assertEquals(200, response.getStatus());
+        JsonArray results = Json.parse(response.readEntity(String.class)).asArray();
+        assertEquals(4, results.size());
+        JsonObject first = results.get(0).asObject().get("fruit").asObject();
+        assertEquals("Durian 1", first.get("name").asString());
+        assertEquals(version + 1, first.get("version").asInt());
+        JsonObject second = results.get(1).asObject().get("fruit").asObject();
+        assertEquals("Durian 2", second.get("name").asString());
+        assertEquals(version + 2, second.get("version").asInt());
+        assertEquals(204, results.get(2).asObject().get("code").asInt());
+        assertEquals(404, results.get(3).asObject().get("code").asInt());
+    }
+
     @Test
     @RunAsClient
     public void modifyFruit() {
@@ -111,4 +248,491 @@ public class FruitServiceTest {
         assertEquals("Apricot", value.get("name").asString());
         assertEquals(id, value.get("id").asInt());
     }
+
+    @Test
+    @RunAsClient
+    public void readAfterUpdate() {
+        int id = createNewFruit("Kiwi").get("id").asInt();
+
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .path(String.valueOf(id));
+
+        // the first read populates the cache, the update must invalidate it
+        assertEquals("Kiwi", Json.parse(target.request(MediaType.APPLICATION_JSON).get(String.class)).asObject().get("name").asString());
+
+        Response response = target.request(MediaType.APPLICATION_JSON)
+                .put(Entity.entity(new Fruit("Gooseberry"), MediaType.APPLICATION_JSON));
+        assertEquals(200, response.getStatus());
+
+        assertEquals("Gooseberry", Json.parse(target.request(MediaType.APPLICATION_JSON).get(String.class)).asObject().get("name").asString());
+    }
+
+    @Test
+    @RunAsClient
+    public void readyAfterWarmup() throws InterruptedException {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/health")
+                .path("/ready");
+
+        Response response = target.request(MediaType.APPLICATION_JSON).get();
+        for (int i = 0; i < 600 && response.getStatus() != 200; i++) {
+            response.close();
+            Thread.sleep(100);
+            response = target.request(MediaType.APPLICATION_JSON).get();
+        }
+        assertEquals(200, response.getStatus());
+        JsonObject check = Json.parse(response.readEntity(String.class)).asObject().get("checks").asArray().values().stream()
+                .map(JsonValue::asObject)
+                .filter(value -> "warm-up".equals(value.get("name").asString()))
+                .findFirst()
+                .orElse(null);
+        assertNotNull(check);
+        assertEquals("done", check.get("data").asObject().get("phase").asString());
+    }
+
+    @Test
+    @RunAsClient
+    public void saturationAndLivenessChecks() {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/health");
+
+        Response response = target.path("/live").request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        assertNotNull(check(response, "executor"));
+
+        response = target.path("/ready").request(MediaType.APPLICATION_JSON).get();
+        JsonObject saturation = check(response, "saturation");
+        assertNotNull(saturation);
+        assertEquals("UP", saturation.get("status").asString());
+    }
+
+    private static JsonObject check(Response response, String name) {
+        return Json.parse(response.readEntity(String.class)).asObject().get("checks").asArray().values().stream()
+                .map(JsonValue::asObject)
+                .filter(value -> name.equals(value.get("name").asString()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    @Test
+    @RunAsClient
+    public void rateLimitedList() {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits");
+        // src/test/config trusts loopback as a proxy, so each forwarded-for address gets buckets of its own
+        String address = "203.0.113." + (System.nanoTime() & 0xff);
+
+        Response response = target.request(MediaType.APPLICATION_JSON).header("X-Forwarded-For", address).get();
+        for (int i = 0; i < 1000 && response.getStatus() == 200; i++) {
+            response.close();
+            response = target.request(MediaType.APPLICATION_JSON).header("X-Forwarded-For", address).get();
+        }
+        assertEquals(429, response.getStatus());
+        assertTrue(Integer.parseInt(response.getHeaderString(HttpHeaders.RETRY_AFTER)) >= 1);
+        response.close();
+
+        // other clients are not affected
+        response = target.request(MediaType.APPLICATION_JSON).header("X-Forwarded-For", "198.51.100.1").get();
+        assertEquals(200, response.getStatus());
+        response.close();
+
+        // and the write bucket is separate
+        response = target.request(MediaType.APPLICATION_JSON).header("X-Forwarded-For", address)
+                .post(Entity.json("{\"name\":\"Medlar\"}"));
+        assertEquals(201, response.getStatus());
+        response.close();
+    }
+
+    @Test
+    @RunAsClient
+    public void serverTiming() {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .path("/1");
+
+        Response response = target.request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        String timing = response.getHeaderString("Server-Timing");
+        assertNotNull(timing);
+        assertTrue(timing.contains("queue;dur="));
+        assertTrue(timing.contains("sql;dur="));
+        assertTrue(timing.contains("total;dur="));
+    }
+
+    @Test
+    @RunAsClient
+    public void cborFruits() throws IOException {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits");
+        // decoded by Jackson's CBOR parser rather than anything of ours
+        ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+
+        Response response = target.queryParam("limit", 2).request(FruitCbor.MEDIA_TYPE).get();
+        assertEquals(200, response.getStatus());
+        assertEquals(FruitCbor.CBOR, response.getMediaType());
+        JsonNode page = cbor.readTree(response.readEntity(byte[].class));
+        assertEquals(2, page.size());
+        assertEquals(1, page.get(0).get("id").intValue());
+        assertTrue(page.get(0).get("name").isTextual());
+        assertTrue(page.get(0).get("version").isInt());
+
+        response = target.request(FruitCbor.MEDIA_TYPE).get();
+        assertEquals(200, response.getStatus());
+        Fruit[] all = cbor.readValue(response.readEntity(byte[].class), Fruit[].class);
+        assertTrue(all.length >= 2);
+        assertEquals(page.get(1).get("name").textValue(), all[1].getName());
+    }
+
+    @Test
+    @RunAsClient
+    public void compressedFruits() throws IOException {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits");
+
+        JsonArray operations = new JsonArray();
+        for (int i = 0; i < 50; i++) {
+            operations.add(new JsonObject().add("op", "create").add("name", "Compressed fruit " + i));
+        }
+        Response response = target.path("batch").request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(operations.toString(), MediaType.APPLICATION_JSON));
+        assertEquals(200, response.getStatus());
+        response.close();
+
+        // fifty fruits are well past the 1 KiB threshold
+        response = target.queryParam("limit", 50).request(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, "deflate")
+                .get();
+        assertEquals(200, response.getStatus());
+        assertEquals("deflate", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        try (InputStream body = new InflaterInputStream(new ByteArrayInputStream(response.readEntity(byte[].class)))) {
+            assertEquals(50, Json.parse(new InputStreamReader(body, StandardCharsets.UTF_8)).asArray().size());
+        }
+
+        // the full list comes pre-compressed, tagged per coding
+        response = target.request(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, "deflate")
+                .get();
+        assertEquals(200, response.getStatus());
+        assertEquals("deflate", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertTrue(response.getEntityTag().getValue().endsWith("-deflate"));
+        try (InputStream body = new InflaterInputStream(new ByteArrayInputStream(response.readEntity(byte[].class)))) {
+            assertTrue(Json.parse(new InputStreamReader(body, StandardCharsets.UTF_8)).asArray().size() >= 50);
+        }
+
+        // small bodies are not worth compressing
+        response = target.queryParam("limit", 1).request(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .get();
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        response.close();
+    }
+
+    @Test
+    @RunAsClient
+    public void readYourWrites() {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits");
+
+        Response response = target.request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(new Fruit("Damson"), MediaType.APPLICATION_JSON));
+        assertEquals(201, response.getStatus());
+        String token = response.getHeaderString("Fruits-Write-Token");
+        assertNotNull(token);
+        assertNotNull(response.getCookies().get("fruits-write-token"));
+        int id = Json.parse(response.readEntity(String.class)).asObject().get("id").asInt();
+
+        // the token keeps the next reads on the primary, which already has the new row
+        JsonObject value = Json.parse(target.path(String.valueOf(id))
+                                              .request(MediaType.APPLICATION_JSON)
+                                              .header("Fruits-Write-Token", token)
+                                              .get(String.class)).asObject();
+        assertEquals("Damson", value.get("name").asString());
+
+        JsonObject found = Json.parse(target.queryParam("ids", id)
+                                              .request(MediaType.APPLICATION_JSON)
+                                              .cookie("fruits-write-token", token)
+                                              .get(String.class)).asObject();
+        assertEquals(1, found.get("fruits").asArray().size());
+
+        // the full list waits for the snapshot to include the write instead of serving the previous one
+        JsonArray all = Json.parse(target.request(MediaType.APPLICATION_JSON)
+                                           .header("Fruits-Write-Token", token)
+                                           .get(String.class)).asArray();
+        assertTrue(all.values().stream().anyMatch(fruit -> fruit.asObject().get("id").asInt() == id));
+    }
+
+    @Test
+    @RunAsClient
+    public void conditionalRequests() {
+        int id = createNewFruit("Lime").get("id").asInt();
+
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .path(String.valueOf(id));
+
+        Response response = target.request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        EntityTag tag = response.getEntityTag();
+        assertNotNull(tag);
+        response.close();
+
+        response = target.request(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, tag.toString()).get();
+        assertEquals(304, response.getStatus());
+        response.close();
+
+        response = target.request(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, tag.toString())
+                .put(Entity.entity(new Fruit("Key Lime"), MediaType.APPLICATION_JSON));
+        assertEquals(200, response.getStatus());
+        assertTrue(!tag.equals(response.getEntityTag()));
+        response.close();
+
+        // the old tag is stale now
+        response = target.request(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, tag.toString())
+                .put(Entity.entity(new Fruit("Persian Lime"), MediaType.APPLICATION_JSON));
+        assertEquals(412, response.getStatus());
+        response.close();
+    }
+
+    @Test
+    @RunAsClient
+    public void searchFruits() {
+        int id = createNewFruit("Blood Orange").get("id").asInt();
+
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .path("/search");
+
+        // a word inside the name
+        Response response = target.queryParam("q", "oran").request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        JsonArray fruits = Json.parse(response.readEntity(String.class)).asArray();
+        assertEquals(id, fruits.get(0).asObject().get("id").asInt());
+        assertEquals("Blood Orange", fruits.get(0).asObject().get("name").asString());
+
+        // a prefix, case insensitive
+        response = target.queryParam("q", "bLo").request(MediaType.APPLICATION_JSON).get();
+        assertEquals(id, Json.parse(response.readEntity(String.class)).asArray().get(0).asObject().get("id").asInt());
+
+        response = target.queryParam("q", "").request(MediaType.APPLICATION_JSON).get();
+        assertEquals(422, response.getStatus());
+    }
+
+    @Test
+    @RunAsClient
+    public void importAndExport() {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits");
+        long token = Json.parse(target.path("/changes").request(MediaType.APPLICATION_JSON).get(String.class))
+                .asObject().get("token").asLong();
+
+        String body = "{\"name\":\"Lychee\"}\n{\"name\":\"Cherry\"}\n{\"name\":\"\"}\n{\"name\":\"Longan\"}\n";
+        Response response = target.path("/import").request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(body, "application/x-ndjson"));
+        assertEquals(200, response.getStatus());
+        JsonObject summary = Json.parse(response.readEntity(String.class)).asObject();
+        assertEquals(4, summary.get("rows").asInt());
+        assertEquals(2, summary.get("inserted").asInt());
+        assertEquals(1, summary.get("duplicates").asInt());
+        assertEquals(1, summary.get("failed").asInt());
+        assertEquals(3, summary.get("errors").asArray().get(0).asObject().get("line").asInt());
+
+        // the chunk is published as one change, not one per row
+        JsonArray changes = Json.parse(target.path("/changes").queryParam("since", token)
+                                               .request(MediaType.APPLICATION_JSON).get(String.class))
+                .asObject().get("changes").asArray();
+        assertEquals(1, changes.size());
+        assertEquals("imported", changes.get(0).asObject().get("type").asString());
+        assertEquals(2, changes.get(0).asObject().get("count").asInt());
+
+        response = target.path("/import").queryParam("onDuplicate", "fail").request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity("id,name\n,Rambutan\n,Lychee\n", "text/csv"));
+        assertEquals(409, response.getStatus());
+        assertEquals(0, Json.parse(response.readEntity(String.class)).asObject().get("inserted").asInt());
+
+        response = target.path("/export").request("text/csv").get();
+        assertEquals(200, response.getStatus());
+        String csv = response.readEntity(String.class);
+        assertTrue(csv.startsWith("id,name,version\n"));
+        assertTrue(csv.contains(",Lychee,0\n"));
+        assertTrue(csv.contains(",Longan,0\n"));
+        assertFalse(csv.contains(",Rambutan,"));
+    }
+
+    @Test
+    @RunAsClient
+    public void changesSinceToken() {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .path("/changes");
+
+        Response response = target.request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        long token = Json.parse(response.readEntity(String.class)).asObject().get("token").asLong();
+
+        int id = createNewFruit("Tamarind").get("id").asInt();
+
+        response = target.queryParam("since", token).request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        JsonObject body = Json.parse(response.readEntity(String.class)).asObject();
+        JsonArray changes = body.get("changes").asArray();
+        JsonObject last = changes.get(changes.size() - 1).asObject();
+        assertEquals("created", last.get("type").asString());
+        assertEquals(id, last.get("id").asInt());
+        assertEquals("Tamarind", last.get("name").asString());
+        assertEquals(last.get("token").asLong(), body.get("token").asLong());
+    }
+
+    @Test
+    @RunAsClient
+    public void changesStreamedToMoreSubscribersThanSenders() throws InterruptedException {
+        WebTarget target = ClientBuilder.newClient().target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .path("/changes");
+        Response response = target.request(MediaType.APPLICATION_JSON).get();
+        assertEquals(200, response.getStatus());
+        long token = Json.parse(response.readEntity(String.class)).asObject().get("token").asLong();
+
+        // src/test/config sets fruits.changes.max-senders to 2
+        int subscribers = 6;
+        CountDownLatch received = new CountDownLatch(subscribers);
+        List<SseEventSource> sources = new ArrayList<>();
+        try {
+            for (int i = 0; i < subscribers; i++) {
+                // a client each, so every stream has a connection of its own
+                SseEventSource source = SseEventSource.target(ClientBuilder.newClient().target(target.getUri())
+                                                                       .queryParam("since", token))
+                        .build();
+                source.register(event -> {
+                    if ("created".equals(event.getName())
+                            && "Salak".equals(Json.parse(event.readData()).asObject().get("name").asString())) {
+                        received.countDown();
+                    }
+                });
+                source.open();
+                sources.add(source);
+            }
+
+            createNewFruit("Salak");
+
+            assertTrue(received.await(30, TimeUnit.SECONDS));
+        } finally {
+            sources.forEach(SseEventSource::close);
+        }
+    }
+
+    @Test
+    @RunAsClient
+    public void groupCommitWrites() throws Exception {
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits");
+        WebTarget metrics = client.target("http://localhost:8080")
+                .path("/metrics")
+                .path("/application");
+        // src/test/config turns group commit on and trusts loopback, so these writes get buckets of their own
+        String address = "203.0.113." + (System.nanoTime() & 0xff);
+        String[] names = new String[20];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Jabuticaba " + i;
+        }
+
+        JsonObject before = Json.parse(metrics.request(MediaType.APPLICATION_JSON).get(String.class)).asObject();
+        List<Response> responses = createConcurrently(target, address, names);
+        JsonObject after = Json.parse(metrics.request(MediaType.APPLICATION_JSON).get(String.class)).asObject();
+
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < names.length; i++) {
+            Response response = responses.get(i);
+            assertEquals(201, response.getStatus());
+            JsonObject fruit = Json.parse(response.readEntity(String.class)).asObject();
+            assertEquals(names[i], fruit.get("name").asString());
+            assertTrue(ids.add(fruit.get("id").asInt()));
+        }
+        long writes = count(after, "fruits.group-commit.writes") - count(before, "fruits.group-commit.writes");
+        long commits = count(after, "fruits.group-commit.commits") - count(before, "fruits.group-commit.commits");
+        assertTrue(writes >= names.length);
+        assertTrue(commits < writes);
+
+        // a taken name fails its group, whose writes are then retried one by one
+        responses = createConcurrently(target, address, "Jabuticaba 0", "Cupuacu", "Bacuri");
+        assertTrue(responses.get(0).getStatus() >= 400);
+        responses.get(0).close();
+        for (int i = 1; i < responses.size(); i++) {
+            assertEquals(201, responses.get(i).getStatus());
+            responses.get(i).close();
+        }
+    }
+
+    private static List<Response> createConcurrently(WebTarget target, String address, String... names) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(names.length);
+        try {
+            List<Future<Response>> pending = new ArrayList<>(names.length);
+            for (String name : names) {
+                // a client each, as one client only holds one connection at a time
+                pending.add(clients.submit(() -> ClientBuilder.newClient().target(target.getUri())
+                        .request(MediaType.APPLICATION_JSON)
+                        .header("X-Forwarded-For", address)
+                        .post(Entity.entity(new Fruit(name), MediaType.APPLICATION_JSON))));
+            }
+            List<Response> responses = new ArrayList<>(names.length);
+            for (Future<Response> response : pending) {
+                responses.add(response.get(30, TimeUnit.SECONDS));
+            }
+            return responses;
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    private static long count(JsonObject metrics, String name) {
+        JsonValue metric = metrics.get(name);
+        return metric == null ? 0 : metric.asObject().get("count").asLong();
+    }
+
+    @Test
+    @RunAsClient
+    public void deleteFruit() {
+        int id = createNewFruit("Quince").get("id").asInt();
+
+        Client client = ClientBuilder.newClient();
+        WebTarget target = client.target("http://localhost:8080")
+                .path("/api")
+                .path("/fruits")
+                .path(String.valueOf(id));
+
+        Response response = target.request().delete();
+        assertEquals(204, response.getStatus());
+        response.close();
+
+        // a second delete finds nothing to remove
+        response = target.request().delete();
+        assertEquals(404, response.getStatus());
+        response.close();
+    }
 }